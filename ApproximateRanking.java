@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.SplittableRandom;
+
+// anytime approximation of the greedy ranking of rankVariablesIncremental()
+// for models too large to evaluate every command: the weights are estimated
+// from a stratified sample of SAMPLE_COMMANDS commands of each module, and
+// before each pick the candidates that might still overtake the leader are
+// refined by evaluating all of their commands; once the deadline has passed
+// no more commands are evaluated and the remaining picks are made on the
+// estimates
+//
+// the estimate of a variable is the largest contribution among its evaluated
+// commands, a lower bound of its weight; no contribution of a command exceeds
+// the weight of the command itself (1 / commands of its module, or that of
+// its product with sync), so the largest such weight among the unevaluated
+// commands of a variable is an upper bound; without a deadline the result is
+// exactly that of the other ranking modes
+//
+// the commands of a module are sampled uniformly, so the heaviest command of
+// a variable with a fraction u of its commands unevaluated is among those
+// with probability about u; a pick made on estimates is out of place with
+// probability at most the sum of u over the variables whose upper bound
+// exceeds the estimate of the pick
+public class ApproximateRanking {
+
+  // commands sampled from each module before the first pick
+  static final int SAMPLE_COMMANDS = 64;
+
+  PrismAnalyse analysis;
+  ArrayList<PrismAnalyse.CommandInfo> cInfos;
+  int[][] varCommands;
+  // commands of each variable by decreasing bound, and for each variable
+  // the position of the first that may still be unevaluated
+  int[][] byBound;
+  int[] nextPending;
+  // evaluated commands of each variable, the first varCommands[var].length -
+  // pendingCount[var] of them, and the position of the variable in their
+  // contributions
+  int[][] evaluated;
+  int[][] evaluatedSlot;
+  long deadline;
+  long seed = 0;
+
+  long[] statesExcl;
+  double[] scratch;
+  // contributions of the evaluated commands, null for the others
+  double[][] contribs;
+  // unevaluated commands of each variable
+  int[] pendingCount;
+  // estimates of the variables with an evaluated command, and upper bounds
+  // of the unevaluated commands of the variables having any
+  PrismAnalyse.WeightHeap estimates;
+  PrismAnalyse.WeightHeap pending;
+
+  int[] touched;
+  boolean[] isTouched;
+  int nTouched;
+
+  int evaluatedCommands;
+  // time and number of command evaluations so far, and the evaluations
+  // still due to recompute the evaluated commands as their variables are
+  // picked
+  long evaluationNanos;
+  long evaluations;
+  long recomputations;
+  int uncertainPicks;
+  double expectedMisplaced;
+
+  public ApproximateRanking(PrismAnalyse analysis, long budgetMillis) {
+    this.analysis = analysis;
+    this.deadline = System.nanoTime() + budgetMillis * 1000000L;
+  }
+
+  double bound(int c) {
+    return analysis.sync ? analysis.commandWeight[c] : 1.0 / cInfos.get(c).moduleCommands;
+  }
+
+  // largest bound among the unevaluated commands of var, -1 if there are none
+  double pendingBound(int var) {
+    int[] commands = byBound[var];
+    while (nextPending[var] < commands.length && contribs[commands[nextPending[var]]] != null) {
+      nextPending[var]++;
+    }
+    return nextPending[var] < commands.length ? bound(commands[nextPending[var]]) : -1;
+  }
+
+  double estimate(int var) {
+    double w = -1;
+    for (int i = varCommands[var].length - pendingCount[var] - 1; i >= 0; i--) {
+      w = Math.max(w, contribs[evaluated[var][i]][evaluatedSlot[var][i]]);
+    }
+    return w;
+  }
+
+  void touch(int var) {
+    if (!isTouched[var]) {
+      isTouched[var] = true;
+      touched[nTouched++] = var;
+    }
+  }
+
+  // a new contribution can only raise the estimates, so they are updated
+  // here, the bounds of the touched variables in refresh()
+  void evaluate(int c) {
+    int[] cVars = cInfos.get(c).vars;
+    contribs[c] = new double[cVars.length];
+    analysis.calcContribution(c, statesExcl, scratch, contribs[c]);
+    evaluatedCommands++;
+    evaluations++;
+    recomputations += cVars.length;
+    for (int i = 0; i < cVars.length; i++) {
+      int var = cVars[i];
+      evaluated[var][varCommands[var].length - pendingCount[var]] = c;
+      evaluatedSlot[var][varCommands[var].length - pendingCount[var]] = i;
+      pendingCount[var]--;
+      if (!PrismAnalyse.contains(statesExcl, var)
+          && (estimates.pos[var] < 0 || contribs[c][i] > estimates.weight[var])) {
+        estimates.set(var, contribs[c][i]);
+      }
+      touch(var);
+    }
+  }
+
+  // updates the bounds of the touched variables and, after contributions
+  // were recomputed, their estimates
+  void refresh(boolean recomputed) {
+    for (int i = 0; i < nTouched; i++) {
+      int var = touched[i];
+      isTouched[var] = false;
+      if (PrismAnalyse.contains(statesExcl, var)) {
+        continue;
+      }
+      if (recomputed) {
+        double w = estimate(var);
+        if (w >= 0) {
+          estimates.set(var, w);
+        } else {
+          estimates.remove(var);
+        }
+      }
+      if (pendingCount[var] > 0) {
+        pending.set(var, pendingBound(var));
+      } else {
+        pending.remove(var);
+      }
+    }
+    nTouched = 0;
+  }
+
+  // evaluates the remaining commands of var, whose estimate is exact then
+  void refine(int var) {
+    long start = System.nanoTime();
+    for (int c : varCommands[var]) {
+      if (contribs[c] == null) {
+        evaluate(c);
+      }
+    }
+    evaluationNanos += System.nanoTime() - start;
+    refresh(false);
+  }
+
+  // whether refining further would leave too little of the budget to
+  // recompute the evaluated commands during the remaining picks, at the
+  // average cost of an evaluation so far
+  boolean outOfTime() {
+    double perEvaluation = evaluations == 0 ? 0 : (double) evaluationNanos / evaluations;
+    return System.nanoTime() + perEvaluation * recomputations > deadline;
+  }
+
+  // whether the upper bound of var might be the weight of the pick leader,
+  // ties going to the larger ID as in the exact ranking
+  boolean overtakes(int var, int leader) {
+    double bound = pending.weight[var];
+    double w = estimates.weight[leader];
+    return bound > w || (bound == w && var > leader);
+  }
+
+  // sum of the unevaluated fractions of the variables that might overtake
+  // leader, at most 1; the heap is ordered, so the search stops at the first
+  // entry that cannot
+  double misplacedProbability(int leader, int i, double sum) {
+    if (i >= pending.size || sum >= 1) {
+      return sum;
+    }
+    int var = pending.heap[i];
+    if (!overtakes(var, leader)) {
+      return sum;
+    }
+    if (var != leader) {
+      sum += (double) pendingCount[var] / varCommands[var].length;
+    }
+    sum = misplacedProbability(leader, 2 * i + 1, sum);
+    return misplacedProbability(leader, 2 * i + 2, sum);
+  }
+
+  void sample() {
+    long start = System.nanoTime();
+    SplittableRandom random = new SplittableRandom(seed);
+    int from = 0;
+    for (int n : analysis.moduleCommands) {
+      // Floyd's algorithm: a uniform subset of k of the n commands
+      int k = Math.min(n, SAMPLE_COMMANDS);
+      for (int j = n - k; j < n; j++) {
+        int c = from + random.nextInt(j + 1);
+        evaluate(contribs[c] == null ? c : from + j);
+      }
+      from += n;
+    }
+    evaluationNanos += System.nanoTime() - start;
+    for (int var = 0; var < varCommands.length; var++) {
+      touch(var);
+    }
+    refresh(false);
+  }
+
+  LinkedList<String> rank() {
+
+    LinkedList<String> varList = new LinkedList<>();
+
+    int nVars = analysis.vars.size();
+    cInfos = analysis.getCommandInfos();
+    int nCommands = cInfos.size();
+    varCommands = analysis.varCommands();
+
+    statesExcl = new long[(nVars + 63) >>> 6];
+    scratch = new double[nVars];
+    Arrays.fill(scratch, -1);
+    contribs = new double[nCommands][];
+    pendingCount = new int[nVars];
+    evaluated = new int[nVars][];
+    evaluatedSlot = new int[nVars][];
+    for (int var = 0; var < nVars; var++) {
+      pendingCount[var] = varCommands[var].length;
+      evaluated[var] = new int[pendingCount[var]];
+      evaluatedSlot[var] = new int[pendingCount[var]];
+    }
+    estimates = analysis.new WeightHeap(nVars);
+    pending = analysis.new WeightHeap(nVars);
+    touched = new int[nVars];
+    isTouched = new boolean[nVars];
+
+    if (analysis.sync) {
+      analysis.updateSync(statesExcl);
+    }
+
+    Integer[] order = new Integer[nCommands];
+    for (int c = 0; c < nCommands; c++) {
+      order[c] = c;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(c -> -bound(c)));
+    byBound = new int[nVars][];
+    nextPending = new int[nVars];
+    for (int var = 0; var < nVars; var++) {
+      byBound[var] = new int[varCommands[var].length];
+    }
+    for (int c : order) {
+      for (int var : cInfos.get(c).vars) {
+        byBound[var][nextPending[var]++] = c;
+      }
+    }
+    Arrays.fill(nextPending, 0);
+
+    sample();
+
+    int[] queued = new int[nCommands];
+    boolean[] isQueued = new boolean[nCommands];
+    int nActions = analysis.sync ? analysis.actionCommands.length : 0;
+    int[] changedActions = new int[nActions];
+    boolean[] isChanged = new boolean[nActions];
+
+    while (true) {
+
+      // refine until no variable can overtake the leader; a variable without
+      // an estimate is refined after the deadline as well, so that every
+      // variable is ranked
+      while (pending.size > 0) {
+        int leader = estimates.size > 0 ? estimates.heap[0] : -1;
+        int var;
+        if (leader >= 0 && pending.pos[leader] >= 0) {
+          var = leader;
+        } else if (leader < 0 || overtakes(pending.heap[0], leader)) {
+          var = pending.heap[0];
+        } else {
+          break;
+        }
+        if (leader >= 0 && outOfTime()) {
+          break;
+        }
+        refine(var);
+      }
+
+      if (estimates.size == 0) {
+        break;
+      }
+
+      int maxStateVar = estimates.heap[0];
+      double max = estimates.weight[maxStateVar];
+      int weighted = estimates.size;
+      boolean uncertain = pending.size > 0
+        && (pending.pos[maxStateVar] >= 0 || overtakes(pending.heap[0], maxStateVar));
+      double upper = pending.pos[maxStateVar] >= 0 ? Math.max(max, pending.weight[maxStateVar]) : max;
+      double misplaced = uncertain ? Math.min(1, misplacedProbability(maxStateVar, 0, 0)) : 0;
+      estimates.remove(maxStateVar);
+      pending.remove(maxStateVar);
+
+      statesExcl = PrismAnalyse.addVar(statesExcl, maxStateVar);
+      analysis.pickVariable(varList, maxStateVar, max, weighted);
+      if (uncertain) {
+        uncertainPicks++;
+        expectedMisplaced += misplaced;
+        if (!analysis.quiet) {
+          System.out.println("//   estimated, weight at most " + upper + ", out of place with probability "
+                             + String.format("%.3f", misplaced));
+        }
+      }
+
+      // as in rankVariablesIncremental(), but only the evaluated commands
+      // have contributions to recompute
+      int nQueued = 0;
+      int nChanged = 0;
+      for (int c : varCommands[maxStateVar]) {
+        isQueued[c] = true;
+        queued[nQueued++] = c;
+        if (analysis.sync) {
+          analysis.updateChildren(c, statesExcl);
+          int a = analysis.commandAction[c];
+          if (a >= 0 && !isChanged[a]) {
+            isChanged[a] = true;
+            changedActions[nChanged++] = a;
+          }
+        }
+      }
+      for (int i = 0; i < nChanged; i++) {
+        int a = changedActions[i];
+        isChanged[a] = false;
+        analysis.updateAction(a);
+        for (int c : analysis.actionCommands[a]) {
+          if (!isQueued[c]) {
+            isQueued[c] = true;
+            queued[nQueued++] = c;
+          }
+        }
+      }
+
+      long start = System.nanoTime();
+      for (int q = 0; q < nQueued; q++) {
+        int c = queued[q];
+        isQueued[c] = false;
+        if (contribs[c] != null) {
+          analysis.calcContribution(c, statesExcl, scratch, contribs[c]);
+          evaluations++;
+          recomputations--;
+          for (int var : cInfos.get(c).vars) {
+            touch(var);
+          }
+        }
+      }
+      evaluationNanos += System.nanoTime() - start;
+      refresh(true);
+    }
+
+    if (!analysis.quiet) {
+      System.out.println("// approximate ranking: " + (varList.size() - uncertainPicks) + " of " + varList.size()
+                         + " picks exact, " + evaluatedCommands + " of " + nCommands + " commands evaluated, "
+                         + String.format("%.2f", expectedMisplaced) + " picks expected out of place");
+    }
+    return varList;
+  }
+}
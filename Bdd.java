@@ -0,0 +1,251 @@
+import java.util.Arrays;
+
+// small BDD package over primitive arrays: nodes are ints, 0 and 1 are the
+// terminals; a node's children always have smaller indices than the node
+// itself, so index order is a topological order
+//
+// there is no reference counting, gc() keeps exactly the nodes reachable from
+// the root arrays passed to it and compacts them, rewriting the roots in place
+public class Bdd {
+
+  static final int FALSE = 0;
+  static final int TRUE = 1;
+
+  static final int OP_ITE = 0;
+
+  // mk fails beyond this many nodes instead of exhausting the heap
+  static final int DEFAULT_MAX_NODES = 1 << 23;
+
+  int numLevels;
+  int maxNodes = DEFAULT_MAX_NODES;
+
+  int[] level;
+  int[] low;
+  int[] high;
+  int size;
+  int peakSize;
+
+  // open addressing, 0 marks an empty slot since terminals are not stored
+  int[] unique;
+
+  // direct mapped computed table for ite
+  int[] cacheF;
+  int[] cacheG;
+  int[] cacheH;
+  int[] cacheResult;
+
+  public Bdd(int numLevels, int initialNodes, int cacheSize) {
+    this.numLevels = numLevels;
+    int capacity = Math.max(16, Integer.highestOneBit(initialNodes - 1) << 1);
+    level = new int[capacity];
+    low = new int[capacity];
+    high = new int[capacity];
+    level[FALSE] = numLevels;
+    level[TRUE] = numLevels;
+    low[TRUE] = high[TRUE] = TRUE;
+    size = 2;
+    unique = new int[2 * capacity];
+
+    int cacheCapacity = Integer.highestOneBit(Math.max(cacheSize, 16) - 1) << 1;
+    cacheF = new int[cacheCapacity];
+    cacheG = new int[cacheCapacity];
+    cacheH = new int[cacheCapacity];
+    cacheResult = new int[cacheCapacity];
+    Arrays.fill(cacheF, -1);
+  }
+
+  static int hash(int a, int b, int c) {
+    int h = a * 0x9E3779B1 + b * 0x85EBCA77 + c * 0xC2B2AE3D;
+    return h ^ (h >>> 15);
+  }
+
+  int findSlot(int lvl, int lo, int hi) {
+    int mask = unique.length - 1;
+    int i = hash(lvl, lo, hi) & mask;
+    while (unique[i] != 0) {
+      int n = unique[i];
+      if (level[n] == lvl && low[n] == lo && high[n] == hi) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  void grow() {
+    int capacity = 2 * level.length;
+    level = Arrays.copyOf(level, capacity);
+    low = Arrays.copyOf(low, capacity);
+    high = Arrays.copyOf(high, capacity);
+    unique = new int[2 * capacity];
+    rehash();
+  }
+
+  void rehash() {
+    Arrays.fill(unique, 0);
+    for (int n = 2; n < size; n++) {
+      unique[findSlot(level[n], low[n], high[n])] = n;
+    }
+  }
+
+  // node at level lvl with else child lo and then child hi
+  int mk(int lvl, int lo, int hi) {
+    if (lo == hi) {
+      return lo;
+    }
+    int slot = findSlot(lvl, lo, hi);
+    if (unique[slot] != 0) {
+      return unique[slot];
+    }
+    if (size == level.length) {
+      if (size >= maxNodes) {
+        throw new IllegalStateException("BDD exceeds " + maxNodes + " nodes");
+      }
+      grow();
+      slot = findSlot(lvl, lo, hi);
+    }
+    int n = size++;
+    level[n] = lvl;
+    low[n] = lo;
+    high[n] = hi;
+    unique[slot] = n;
+    if (size > peakSize) {
+      peakSize = size;
+    }
+    return n;
+  }
+
+  int ithVar(int lvl) {
+    return mk(lvl, FALSE, TRUE);
+  }
+
+  int ite(int f, int g, int h) {
+    if (f == TRUE) {
+      return g;
+    } else if (f == FALSE) {
+      return h;
+    } else if (g == h) {
+      return g;
+    } else if (g == TRUE && h == FALSE) {
+      return f;
+    }
+
+    int slot = hash(f, g, h) & (cacheF.length - 1);
+    if (cacheF[slot] == f && cacheG[slot] == g && cacheH[slot] == h) {
+      return cacheResult[slot];
+    }
+
+    int top = Math.min(level[f], Math.min(level[g], level[h]));
+    int lo = ite(level[f] == top ? low[f] : f,
+                 level[g] == top ? low[g] : g,
+                 level[h] == top ? low[h] : h);
+    int hi = ite(level[f] == top ? high[f] : f,
+                 level[g] == top ? high[g] : g,
+                 level[h] == top ? high[h] : h);
+    int result = mk(top, lo, hi);
+
+    cacheF[slot] = f;
+    cacheG[slot] = g;
+    cacheH[slot] = h;
+    cacheResult[slot] = result;
+    return result;
+  }
+
+  int not(int f) {
+    return ite(f, FALSE, TRUE);
+  }
+
+  int and(int f, int g) {
+    return ite(f, g, FALSE);
+  }
+
+  int or(int f, int g) {
+    return ite(f, TRUE, g);
+  }
+
+  int iff(int f, int g) {
+    return ite(f, g, not(g));
+  }
+
+  int implies(int f, int g) {
+    return ite(f, g, TRUE);
+  }
+
+  // number of nodes of f including the terminals, as Cudd_DagSize
+  int nodeCount(int f) {
+    boolean[] visited = new boolean[size];
+    int[] stack = new int[size];
+    int sp = 0;
+    int count = 0;
+    stack[sp++] = f;
+    visited[f] = true;
+    while (sp > 0) {
+      int n = stack[--sp];
+      count++;
+      if (n > TRUE) {
+        if (!visited[low[n]]) {
+          visited[low[n]] = true;
+          stack[sp++] = low[n];
+        }
+        if (!visited[high[n]]) {
+          visited[high[n]] = true;
+          stack[sp++] = high[n];
+        }
+      }
+    }
+    return count;
+  }
+
+  // mark/compact: keeps the nodes reachable from the given roots (negative
+  // entries are ignored) and rewrites the roots to the new node indices
+  void gc(int[]... roots) {
+    boolean[] live = new boolean[size];
+    live[FALSE] = live[TRUE] = true;
+    int[] stack = new int[size];
+    int sp = 0;
+    for (int[] rootArray : roots) {
+      for (int r : rootArray) {
+        if (r >= 0 && !live[r]) {
+          live[r] = true;
+          stack[sp++] = r;
+        }
+      }
+    }
+    while (sp > 0) {
+      int n = stack[--sp];
+      if (!live[low[n]]) {
+        live[low[n]] = true;
+        stack[sp++] = low[n];
+      }
+      if (!live[high[n]]) {
+        live[high[n]] = true;
+        stack[sp++] = high[n];
+      }
+    }
+
+    // children have smaller indices, so they are moved before their parents
+    int[] forward = new int[size];
+    forward[TRUE] = TRUE;
+    int newSize = 2;
+    for (int n = 2; n < size; n++) {
+      if (live[n]) {
+        level[newSize] = level[n];
+        low[newSize] = forward[low[n]];
+        high[newSize] = forward[high[n]];
+        forward[n] = newSize++;
+      }
+    }
+    size = newSize;
+
+    for (int[] rootArray : roots) {
+      for (int i = 0; i < rootArray.length; i++) {
+        if (rootArray[i] >= 0) {
+          rootArray[i] = forward[rootArray[i]];
+        }
+      }
+    }
+
+    rehash();
+    Arrays.fill(cacheF, -1);
+  }
+}
@@ -0,0 +1,501 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// the ranking of rankVariablesIncremental() split along the variable
+// interaction graph: two variables interact if a command contains both (the
+// weight of a command depends on which of its variables are excluded) and,
+// with sync, if they occur in commands of the same action. The connected
+// components are ranked on -threads workers, each in its own greedy loop
+// over its own commands, and the orders are concatenated, every component
+// contiguous, the components by the weight of their first pick
+//
+// the weights of a component do not depend on the picks in the others, so
+// each component is ranked exactly as in the global loop; only the
+// interleaving of the components differs
+//
+// without sync, a component whose variables fall apart into two clusters
+// joined by few commands (at most SPLIT_COUPLING of its commands) is split
+// further, at the cheapest cut of a breadth-first sweep from a peripheral
+// variable. A command across the cut is evaluated in both clusters with only
+// the picks of the cluster excluded, so the order within the clusters is an
+// approximation
+public class ComponentRanking {
+
+  // components smaller than this are not split
+  static final int SPLIT_MIN_VARS = 32;
+  // neither side of a cut has fewer variables than this
+  static final int SPLIT_MIN_SIDE = 8;
+  // commands across a cut, as a fraction of the commands of the component
+  static final double SPLIT_COUPLING = 0.02;
+
+  PrismAnalyse analysis;
+  ArrayList<PrismAnalyse.CommandInfo> cInfos;
+  int[][] varCommands;
+
+  // variables of each cluster in ascending order, and the number of
+  // clusters split off a component
+  List<int[]> clusters = new ArrayList<>();
+  int splits;
+
+  // per variable and per command its index in the cluster being split, -1
+  // outside; the split is sequential, the ranking has them per thread
+  int[] localVar;
+  int[] localCommand;
+
+  // the picks of one cluster, with the work done since the previous pick
+  static class Result {
+    int n;
+    int[] picks;
+    double[] weights;
+    int[] weighted;
+    int[] commands;
+    long[] nodes;
+
+    Result(int vars) {
+      picks = new int[vars];
+      weights = new double[vars];
+      weighted = new int[vars];
+      commands = new int[vars];
+      nodes = new long[vars];
+    }
+  }
+
+  // per worker: the arrays of rank(), indexed by global ID
+  class Workspace {
+    double[] scratch = new double[analysis.vars.size()];
+    int[] localVar = new int[analysis.vars.size()];
+    int[] localCommand = new int[cInfos.size()];
+
+    Workspace() {
+      Arrays.fill(scratch, -1);
+      Arrays.fill(localVar, -1);
+      Arrays.fill(localCommand, -1);
+    }
+  }
+
+  public ComponentRanking(PrismAnalyse analysis) {
+    this.analysis = analysis;
+  }
+
+  static int find(int[] parent, int var) {
+    while (parent[var] != var) {
+      parent[var] = parent[parent[var]];
+      var = parent[var];
+    }
+    return var;
+  }
+
+  static void union(int[] parent, int var1, int var2) {
+    int r1 = find(parent, var1);
+    int r2 = find(parent, var2);
+    if (r1 != r2) {
+      parent[Math.max(r1, r2)] = Math.min(r1, r2);
+    }
+  }
+
+  // the connected components of the variables occurring in commands
+  void findComponents() {
+    int nVars = analysis.vars.size();
+    int[] parent = new int[nVars];
+    for (int var = 0; var < nVars; var++) {
+      parent[var] = var;
+    }
+    for (PrismAnalyse.CommandInfo ci : cInfos) {
+      for (int var : ci.vars) {
+        union(parent, ci.vars[0], var);
+      }
+    }
+    if (analysis.sync) {
+      for (int[] commands : analysis.actionCommands) {
+        int first = -1;
+        for (int c : commands) {
+          int[] vars = cInfos.get(c).vars;
+          if (vars.length > 0) {
+            if (first < 0) {
+              first = vars[0];
+            }
+            union(parent, first, vars[0]);
+          }
+        }
+      }
+    }
+
+    int[] size = new int[nVars];
+    for (int var = 0; var < nVars; var++) {
+      if (varCommands[var].length > 0) {
+        size[find(parent, var)]++;
+      }
+    }
+    int[][] members = new int[nVars][];
+    for (int var = 0; var < nVars; var++) {
+      if (varCommands[var].length > 0) {
+        int root = find(parent, var);
+        if (members[root] == null) {
+          members[root] = new int[size[root]];
+          size[root] = 0;
+        }
+        members[root][size[root]++] = var;
+      }
+    }
+    for (int[] component : members) {
+      if (component != null) {
+        if (analysis.sync) {
+          clusters.add(component);
+        } else {
+          split(component);
+        }
+      }
+    }
+  }
+
+  // the variables of cluster in breadth-first order from start; variables
+  // not reached are continued with in ascending order
+  int[] sweepOrder(int[] cluster, int nCommands, int start) {
+    int[] order = new int[cluster.length];
+    boolean[] seen = new boolean[cluster.length];
+    boolean[] commandSeen = new boolean[nCommands];
+    int n = 0;
+    int head = 0;
+    int next = 0;
+    seen[start] = true;
+    order[n++] = start;
+    while (head < cluster.length) {
+      if (head == n) {
+        while (seen[next]) {
+          next++;
+        }
+        seen[next] = true;
+        order[n++] = next;
+      }
+      int var = cluster[order[head++]];
+      for (int c : varCommands[var]) {
+        if (commandSeen[localCommand[c]]) {
+          continue;
+        }
+        commandSeen[localCommand[c]] = true;
+        for (int other : cInfos.get(c).vars) {
+          int i = localVar[other];
+          if (i >= 0 && !seen[i]) {
+            seen[i] = true;
+            order[n++] = i;
+          }
+        }
+      }
+    }
+    return order;
+  }
+
+  // adds cluster to the clusters, split recursively at weak couplings
+  void split(int[] cluster) {
+    int n = cluster.length;
+    if (n < SPLIT_MIN_VARS) {
+      clusters.add(cluster);
+      return;
+    }
+
+    for (int i = 0; i < n; i++) {
+      localVar[cluster[i]] = i;
+    }
+    // commands of the cluster and how many of their variables are in it
+    int nCommands = 0;
+    int[] commands = new int[n];
+    for (int var : cluster) {
+      for (int c : varCommands[var]) {
+        if (localCommand[c] < 0) {
+          if (nCommands == commands.length) {
+            commands = Arrays.copyOf(commands, 2 * nCommands);
+          }
+          localCommand[c] = nCommands;
+          commands[nCommands++] = c;
+        }
+      }
+    }
+    int[] inside = new int[nCommands];
+    for (int var : cluster) {
+      for (int c : varCommands[var]) {
+        inside[localCommand[c]]++;
+      }
+    }
+
+    // the last variable reached from the first is a peripheral one, the
+    // sweep starts there
+    int[] order = sweepOrder(cluster, nCommands, 0);
+    order = sweepOrder(cluster, nCommands, order[n - 1]);
+
+    // commands across the cut after each prefix of the sweep, the cut of the
+    // fewest per variable on the smaller side is taken
+    int[] count = new int[nCommands];
+    int crossing = 0;
+    int bestCut = -1;
+    int bestCrossing = 0;
+    for (int k = 0; k < n - SPLIT_MIN_SIDE; k++) {
+      for (int c : varCommands[cluster[order[k]]]) {
+        int lc = localCommand[c];
+        if (count[lc]++ == 0 && inside[lc] > 1) {
+          crossing++;
+        }
+        if (count[lc] == inside[lc] && inside[lc] > 1) {
+          crossing--;
+        }
+      }
+      if (k + 1 >= SPLIT_MIN_SIDE) {
+        int smaller = Math.min(k + 1, n - k - 1);
+        if (bestCut < 0 || (long) crossing * Math.min(bestCut, n - bestCut) < (long) bestCrossing * smaller) {
+          bestCut = k + 1;
+          bestCrossing = crossing;
+        }
+      }
+    }
+
+    for (int var : cluster) {
+      localVar[var] = -1;
+    }
+    for (int i = 0; i < nCommands; i++) {
+      localCommand[commands[i]] = -1;
+    }
+
+    if (bestCut < 0 || bestCrossing > SPLIT_COUPLING * nCommands) {
+      clusters.add(cluster);
+      return;
+    }
+    splits++;
+    int[] first = new int[bestCut];
+    int[] second = new int[n - bestCut];
+    for (int k = 0; k < n; k++) {
+      if (k < bestCut) {
+        first[k] = cluster[order[k]];
+      } else {
+        second[k - bestCut] = cluster[order[k]];
+      }
+    }
+    Arrays.sort(first);
+    Arrays.sort(second);
+    split(first);
+    split(second);
+  }
+
+  // the greedy loop of rankVariablesIncremental() on the commands of
+  // cluster, picking only its variables; variables and commands have
+  // indices local to the cluster, so that the arrays are as large as the
+  // cluster
+  Result rank(int[] cluster, Workspace ws) {
+    int n = cluster.length;
+    Result r = new Result(n);
+    for (int i = 0; i < n; i++) {
+      ws.localVar[cluster[i]] = i;
+    }
+    int m = 0;
+    int[] commands = new int[n];
+    for (int var : cluster) {
+      for (int c : varCommands[var]) {
+        if (ws.localCommand[c] < 0) {
+          if (m == commands.length) {
+            commands = Arrays.copyOf(commands, 2 * m);
+          }
+          ws.localCommand[c] = m;
+          commands[m++] = c;
+        }
+      }
+    }
+
+    long[] statesExcl = new long[(analysis.vars.size() + 63) >>> 6];
+    double[][] contribs = new double[m][];
+    int evaluated = 0;
+    long nodes = 0;
+    for (int lc = 0; lc < m; lc++) {
+      contribs[lc] = new double[cInfos.get(commands[lc]).vars.length];
+      nodes += contribution(commands[lc], statesExcl, ws.scratch, contribs[lc]);
+      evaluated++;
+    }
+
+    PrismAnalyse.WeightHeap heap = analysis.new WeightHeap(n);
+    for (int i = 0; i < n; i++) {
+      double w = weight(cluster[i], ws, contribs);
+      if (w >= 0) {
+        heap.set(i, w);
+      }
+    }
+
+    int[] touched = new int[n];
+    boolean[] isTouched = new boolean[n];
+    int[] queued = new int[m];
+    boolean[] isQueued = new boolean[m];
+    int nActions = analysis.sync ? analysis.actionCommands.length : 0;
+    int[] changedActions = new int[nActions];
+    boolean[] isChanged = new boolean[nActions];
+
+    while (heap.size > 0) {
+
+      double max = heap.weight[heap.heap[0]];
+      int weighted = heap.size;
+      int maxStateVar = cluster[heap.pop()];
+
+      statesExcl = PrismAnalyse.addVar(statesExcl, maxStateVar);
+      r.picks[r.n] = maxStateVar;
+      r.weights[r.n] = max;
+      r.weighted[r.n] = weighted;
+      r.commands[r.n] = evaluated;
+      r.nodes[r.n] = nodes;
+      r.n++;
+      evaluated = 0;
+      nodes = 0;
+
+      int nQueued = 0;
+      int nChanged = 0;
+      for (int c : varCommands[maxStateVar]) {
+        int lc = ws.localCommand[c];
+        isQueued[lc] = true;
+        queued[nQueued++] = lc;
+        if (analysis.sync) {
+          analysis.updateChildren(c, statesExcl);
+          int a = analysis.commandAction[c];
+          if (a >= 0 && !isChanged[a]) {
+            isChanged[a] = true;
+            changedActions[nChanged++] = a;
+          }
+        }
+      }
+      // with sync, the commands of an action are in the same component
+      for (int i = 0; i < nChanged; i++) {
+        int a = changedActions[i];
+        isChanged[a] = false;
+        analysis.updateAction(a);
+        for (int c : analysis.actionCommands[a]) {
+          int lc = ws.localCommand[c];
+          if (!isQueued[lc]) {
+            isQueued[lc] = true;
+            queued[nQueued++] = lc;
+          }
+        }
+      }
+
+      int nTouched = 0;
+      for (int q = 0; q < nQueued; q++) {
+        int lc = queued[q];
+        isQueued[lc] = false;
+        nodes += contribution(commands[lc], statesExcl, ws.scratch, contribs[lc]);
+        evaluated++;
+        for (int var : cInfos.get(commands[lc]).vars) {
+          int i = ws.localVar[var];
+          if (i >= 0 && !isTouched[i] && !PrismAnalyse.contains(statesExcl, var)) {
+            isTouched[i] = true;
+            touched[nTouched++] = i;
+          }
+        }
+      }
+
+      for (int t = 0; t < nTouched; t++) {
+        int i = touched[t];
+        isTouched[i] = false;
+        double w = weight(cluster[i], ws, contribs);
+        if (w >= 0) {
+          heap.set(i, w);
+        } else {
+          heap.remove(i);
+        }
+      }
+    }
+
+    for (int var : cluster) {
+      ws.localVar[var] = -1;
+    }
+    for (int lc = 0; lc < m; lc++) {
+      ws.localCommand[commands[lc]] = -1;
+    }
+    return r;
+  }
+
+  // as PrismAnalyse.calcContribution(), but without the metrics, which are
+  // not shared by the workers; returns the number of nodes visited
+  int contribution(int c, long[] statesExcl, double[] scratch, double[] contrib) {
+    int[] vars = cInfos.get(c).vars;
+    int nodes = analysis.commandWeights(c, statesExcl, scratch);
+    for (int i = 0; i < vars.length; i++) {
+      contrib[i] = scratch[vars[i]];
+      scratch[vars[i]] = -1;
+    }
+    return nodes;
+  }
+
+  // as PrismAnalyse.varWeight(), with the contributions by local command
+  double weight(int var, Workspace ws, double[][] contribs) {
+    double w = -1;
+    for (int c : varCommands[var]) {
+      int i = Arrays.binarySearch(cInfos.get(c).vars, var);
+      double[] contrib = contribs[ws.localCommand[c]];
+      if (contrib[i] > w) {
+        w = contrib[i];
+      }
+    }
+    return w;
+  }
+
+  LinkedList<String> rank() {
+    cInfos = analysis.getCommandInfos();
+    varCommands = analysis.varCommands();
+    localVar = new int[analysis.vars.size()];
+    localCommand = new int[cInfos.size()];
+    Arrays.fill(localVar, -1);
+    Arrays.fill(localCommand, -1);
+    findComponents();
+
+    if (analysis.sync) {
+      analysis.updateSync(new long[(analysis.vars.size() + 63) >>> 6]);
+    }
+
+    // the largest clusters are started first
+    Integer[] bySize = new Integer[clusters.size()];
+    for (int k = 0; k < bySize.length; k++) {
+      bySize[k] = k;
+    }
+    Arrays.sort(bySize, Comparator.comparingInt((Integer k) -> -clusters.get(k).length));
+
+    Result[] results = new Result[clusters.size()];
+    ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(Workspace::new);
+    ForkJoinPool pool = new ForkJoinPool(analysis.threads);
+    try {
+      List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+      for (int k : bySize) {
+        int[] cluster = clusters.get(k);
+        tasks.add(pool.submit(() -> rank(cluster, workspace.get())));
+      }
+      for (int j = 0; j < bySize.length; j++) {
+        results[bySize[j]] = tasks.get(j).join();
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // the cluster with the heavier first pick goes first, ties to the
+    // larger variable ID as in the global loop
+    List<Result> merged = new ArrayList<>();
+    for (Result r : results) {
+      if (r.n > 0) {
+        merged.add(r);
+      }
+    }
+    merged.sort((r1, r2) -> r1.weights[0] != r2.weights[0] ? Double.compare(r2.weights[0], r1.weights[0])
+                                                          : Integer.compare(r2.picks[0], r1.picks[0]));
+
+    LinkedList<String> varList = new LinkedList<>();
+    int largest = 0;
+    for (Result r : merged) {
+      largest = Math.max(largest, r.n);
+      for (int k = 0; k < r.n; k++) {
+        analysis.metrics.iterationCommands = r.commands[k];
+        analysis.metrics.iterationNodes = r.nodes[k];
+        analysis.pickVariable(varList, r.picks[k], r.weights[k], r.weighted[k]);
+      }
+    }
+    if (!analysis.quiet) {
+      System.out.println("// components ranked separately: " + merged.size() + " (" + splits
+                         + " split off at weak couplings), the largest with " + largest + " variables");
+    }
+    return varList;
+  }
+}
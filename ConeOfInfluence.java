@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import parser.ast.*;
+import parser.ast.Module;
+import parser.visitor.ASTTraverse;
+import prism.ModelType;
+import prism.PrismLangException;
+
+// cone of influence of the properties of a properties file: the state
+// variables the properties read, closed under the variables read by the
+// commands that change a relevant variable (guard, probabilities or rates,
+// and the assigned expressions, i.e. stateVarDependencies) and, for
+// synchronised commands, by the other commands of the same action; the
+// remaining variables cannot influence the properties and are removed
+// together with their updates
+//
+// what stays in the model must not read a removed variable, so the labels,
+// formulas, reward structures and init block of the model are in the cone as
+// well; for DTMCs and MDPs every command is kept (a command that only changes
+// removed variables still takes part in the choice), so all guards and
+// probabilities are in the cone, while in a CTMC such commands are removed
+public class ConeOfInfluence {
+
+  // state variables and labels read by the properties
+  static class PropertyVars extends ASTTraverse {
+    HashSet<String> vars = new HashSet<>();
+    ArrayList<String> labels = new ArrayList<>();
+
+    public void visitPost(ExpressionVar e) throws PrismLangException {
+      vars.add(e.getName());
+    }
+
+    public void visitPost(ExpressionLabel e) throws PrismLangException {
+      if (!labels.contains(e.getName())) {
+        labels.add(e.getName());
+      }
+    }
+  }
+
+  PrismAnalyse analysis;
+  ModulesFile mf;
+
+  long[] cone = PrismAnalyse.EMPTY_SUPPORT;
+  ArrayList<Integer> worklist = new ArrayList<>();
+
+  // commands assigning each variable and commands of each action
+  ArrayList<ArrayList<Command>> assigning = new ArrayList<>();
+  HashMap<String, ArrayList<Command>> actionCommands = new HashMap<>();
+
+  ArrayList<String> removedVars = new ArrayList<>();
+  int removedUpdates;
+  int removedCommands;
+
+  public ConeOfInfluence(PrismAnalyse analysis) {
+    this.analysis = analysis;
+    this.mf = analysis.mf;
+    if (analysis.stateVarDependencies == null) {
+      analysis.populateCommands();
+    }
+
+    for (int v = 0; v < analysis.vars.size(); v++) {
+      assigning.add(new ArrayList<Command>());
+    }
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        if (!c.getSynch().equals("")) {
+          actionCommands.computeIfAbsent(c.getSynch(), k -> new ArrayList<Command>()).add(c);
+        }
+        Updates us = c.getUpdates();
+        for (int k = 0; k < us.getNumUpdates(); k++) {
+          Update u = us.getUpdate(k);
+          for (int l = 0; l < u.getNumElements(); l++) {
+            List<Command> cs = assigning.get(analysis.varId(u.getVar(l)));
+            if (!cs.contains(c)) {
+              cs.add(c);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  void add(long[] vars) {
+    for (int v : PrismAnalyse.toIds(vars)) {
+      if (!PrismAnalyse.contains(cone, v)) {
+        cone = PrismAnalyse.addVar(cone, v);
+        worklist.add(v);
+      }
+    }
+  }
+
+  void add(Expression e) {
+    if (e != null) {
+      add(analysis.support(e));
+    }
+  }
+
+  // guard and probabilities (rates) of c
+  void addCommand(Command c) {
+    add(c.getGuard());
+    Updates us = c.getUpdates();
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      add(us.getProbability(k));
+    }
+  }
+
+  void addAllCommands() {
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        addCommand(m.getCommand(j));
+      }
+    }
+  }
+
+  // the variables read by the properties and labels of pf and by the parts
+  // of the model that are always kept
+  void seed(PropertiesFile pf) throws PrismLangException {
+    PropertyVars pv = new PropertyVars();
+    for (int i = 0; i < pf.getNumProperties(); i++) {
+      pf.getProperty(i).accept(pv);
+    }
+    // labels may use other labels
+    for (int i = 0; i < pv.labels.size(); i++) {
+      String label = pv.labels.get(i);
+      int index = pf.getLabelList().getLabelIndex(label);
+      if (index >= 0) {
+        pf.getLabelList().getLabel(index).accept(pv);
+      } else if (label.equals("deadlock")) {
+        addAllCommands();
+      }
+    }
+    for (String name : pv.vars) {
+      int v = analysis.vars.lookup(name);
+      if (v >= 0) {
+        add(PrismAnalyse.addVar(PrismAnalyse.EMPTY_SUPPORT, v));
+      }
+    }
+
+    for (int i = 0; i < mf.getLabelList().size(); i++) {
+      add(mf.getLabelList().getLabel(i));
+    }
+    for (int i = 0; i < mf.getFormulaList().size(); i++) {
+      add(mf.getFormulaList().getFormula(i));
+    }
+    add(mf.getInitialStates());
+    for (int i = 0; i < mf.getNumRewardStructs(); i++) {
+      RewardStruct r = mf.getRewardStruct(i);
+      for (int j = 0; j < r.getNumItems(); j++) {
+        add(r.getStates(j));
+        add(r.getReward(j));
+      }
+    }
+    if (mf.getModelType() != ModelType.CTMC) {
+      addAllCommands();
+    }
+  }
+
+  void close() {
+    while (!worklist.isEmpty()) {
+      int v = worklist.remove(worklist.size() - 1);
+      add(analysis.stateVarDependencies[v]);
+      for (Command c : assigning.get(v)) {
+        addCommand(c);
+        if (!c.getSynch().equals("")) {
+          for (Command d : actionCommands.get(c.getSynch())) {
+            addCommand(d);
+          }
+        }
+      }
+    }
+  }
+
+  boolean inCone(String varName) {
+    return PrismAnalyse.contains(cone, analysis.varId(varName));
+  }
+
+  // removes the variables outside the cone of influence of pf, their updates
+  // and, in CTMCs, the commands left without effect
+  void reduce(PropertiesFile pf) throws PrismLangException {
+    seed(pf);
+    close();
+
+    // actions that change a relevant variable are kept in every module
+    HashSet<String> relevantActions = new HashSet<>();
+    for (int v : PrismAnalyse.toIds(cone)) {
+      for (Command c : assigning.get(v)) {
+        relevantActions.add(c.getSynch());
+      }
+    }
+
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      ArrayList<Command> removed = new ArrayList<>();
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        boolean relevant = false;
+        Updates us = c.getUpdates();
+        for (int k = 0; k < us.getNumUpdates(); k++) {
+          Update u = us.getUpdate(k);
+          for (int l = u.getNumElements() - 1; l >= 0; l--) {
+            if (inCone(u.getVar(l))) {
+              relevant = true;
+            } else {
+              u.removeElement(l);
+              removedUpdates++;
+            }
+          }
+        }
+        if (mf.getModelType() == ModelType.CTMC && !relevant
+            && (c.getSynch().equals("") || !relevantActions.contains(c.getSynch()))) {
+          removed.add(c);
+        }
+      }
+      for (Command c : removed) {
+        m.removeCommand(c);
+        removedCommands++;
+      }
+
+      // the globals stay declared, ModulesFile cannot remove them; without
+      // updates they keep their initial value
+      List<Declaration> decls = m.getDeclarations();
+      for (Declaration d : decls) {
+        if (!inCone(d.getName())) {
+          removedVars.add(d.getName());
+        }
+      }
+      decls.removeIf(d -> !inCone(d.getName()));
+    }
+  }
+
+  // prints the variables removed by reduce() and the state bits saved;
+  // ranges holds the declared ranges of the model before the reduction, null
+  // if they could not be evaluated; only ints and bools have state bits
+  void report(RangeAnalysis ranges) {
+    String bits = "not available (undefined constants)";
+    if (ranges != null) {
+      int before = 0;
+      int after = 0;
+      for (int v = 0; v < analysis.vars.size(); v++) {
+        if (!ranges.encoded(v)) {
+          continue;
+        }
+        int b = RangeAnalysis.bits(ranges.declLow[v], ranges.declHigh[v]);
+        before += b;
+        if (!removedVars.contains(analysis.vars.name(v))) {
+          after += b;
+        }
+      }
+      bits = before + " -> " + after;
+    }
+    System.out.println("// cone of influence: removed " + removedVars.size() + " of " + analysis.vars.size()
+                       + " variables " + removedVars + ", " + removedUpdates + " updates, "
+                       + removedCommands + " commands; state bits " + bits);
+  }
+}
@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import parser.ast.*;
+import parser.visitor.ASTTraverse;
+import prism.PrismLangException;
+
+// the expressions of parser.ast as the analyses see them; visit() is the
+// only place that tests the kind of an expression:
+//
+//   variables, constants and literals are leaves
+//   unary and binary operators, if-then-else and functions are operators
+//   over their operands; an analysis that depends on the operator (the
+//   intervals of RangeAnalysis, the BDDs of TransitionBdd) overrides
+//   visitBinaryOp() etc.
+//   a formula reference or a label stands for its definition, looked up by
+//   name so that every reference leads to the same definition node and
+//   whatever a subclass caches for it is computed once
+//   any other kind (the P, R and temporal operators of properties, ...) is
+//   by default an operator over the variables an ASTTraverse finds below it
+public abstract class ExpressionVisitor<R> {
+
+  static final Expression[] NO_OPERANDS = new Expression[0];
+
+  // definitions by formula name and by label name
+  HashMap<String, Expression> formulas;
+  HashMap<String, Expression> labels;
+
+  ExpressionVisitor(HashMap<String, Expression> formulas, HashMap<String, Expression> labels) {
+    this.formulas = formulas;
+    this.labels = labels;
+  }
+
+  // the variables below e, visited by the ASTTraverse fallback
+  static class VarCollector extends ASTTraverse {
+    ArrayList<Expression> vars = new ArrayList<>();
+
+    public void visitPost(ExpressionVar e) throws PrismLangException {
+      vars.add(e);
+    }
+  }
+
+  R visit(Expression e) {
+    if (e instanceof ExpressionVar) {
+      return visitVar((ExpressionVar) e);
+    } else if (e instanceof ExpressionConstant) {
+      return visitConstant((ExpressionConstant) e);
+    } else if (e instanceof ExpressionLiteral) {
+      return visitLiteral((ExpressionLiteral) e);
+    } else if (e instanceof ExpressionBinaryOp) {
+      return visitBinaryOp((ExpressionBinaryOp) e);
+    } else if (e instanceof ExpressionUnaryOp) {
+      return visitUnaryOp((ExpressionUnaryOp) e);
+    } else if (e instanceof ExpressionITE) {
+      return visitITE((ExpressionITE) e);
+    } else if (e instanceof ExpressionFunc) {
+      return visitFunc((ExpressionFunc) e);
+    } else if (e instanceof ExpressionFormula) {
+      ExpressionFormula f = (ExpressionFormula) e;
+      Expression definition = formulas.get(f.getName());
+      return visitReference(e, definition != null ? definition : f.getDefinition());
+    } else if (e instanceof ExpressionLabel) {
+      return visitReference(e, labels.get(((ExpressionLabel) e).getName()));
+    }
+    return visitOther(e);
+  }
+
+  abstract R visitVar(ExpressionVar e);
+
+  abstract R visitConstant(ExpressionConstant e);
+
+  abstract R visitLiteral(ExpressionLiteral e);
+
+  // e is an operator over nOperands operands, operand(e, i) is the i-th; the
+  // operands are not copied, the weights visit every node on every pick
+  abstract R visitOperator(Expression e, int nOperands);
+
+  // the kind was tested by visit(), only the operators reach here
+  Expression operand(Expression e, int i) {
+    if (e instanceof ExpressionBinaryOp) {
+      return i == 0 ? ((ExpressionBinaryOp) e).getOperand1() : ((ExpressionBinaryOp) e).getOperand2();
+    } else if (e instanceof ExpressionUnaryOp) {
+      return ((ExpressionUnaryOp) e).getOperand();
+    } else if (e instanceof ExpressionITE) {
+      ExpressionITE ite = (ExpressionITE) e;
+      return i == 0 ? ite.getOperand1() : i == 1 ? ite.getOperand2() : ite.getOperand3();
+    } else if (e instanceof ExpressionFunc) {
+      return ((ExpressionFunc) e).getOperand(i);
+    }
+    return otherOperands(e)[i];
+  }
+
+  // the operators are visited as operators over their operands, unless an
+  // analysis needs to know which operator it is
+
+  R visitBinaryOp(ExpressionBinaryOp e) {
+    return visitOperator(e, 2);
+  }
+
+  R visitUnaryOp(ExpressionUnaryOp e) {
+    return visitOperator(e, 1);
+  }
+
+  R visitITE(ExpressionITE e) {
+    return visitOperator(e, 3);
+  }
+
+  R visitFunc(ExpressionFunc e) {
+    return visitOperator(e, e.getNumOperands());
+  }
+
+  // the variables of the last kind not listed in visit(); an operator over
+  // them has only leaves below it, so one at a time is enough
+  Expression other;
+  Expression[] otherVars = NO_OPERANDS;
+
+  Expression[] otherOperands(Expression e) {
+    if (e != other) {
+      VarCollector collector = new VarCollector();
+      try {
+        e.accept(collector);
+      } catch (PrismLangException ex) {
+        throw new IllegalStateException(ex);
+      }
+      other = e;
+      otherVars = collector.vars.toArray(NO_OPERANDS);
+    }
+    return otherVars;
+  }
+
+  // any kind not listed in visit()
+  R visitOther(Expression e) {
+    return visitOperator(e, otherOperands(e).length);
+  }
+
+  // definition is null for a label without one in the model (e.g. "init")
+  // or a formula that was not expanded
+  R visitReference(Expression e, Expression definition) {
+    return definition != null ? visit(definition) : visitOperator(e, 0);
+  }
+}
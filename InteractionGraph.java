@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import parser.ast.*;
+import parser.ast.Module;
+
+// variable interaction hypergraph: one hyperedge per guard (the variables it
+// reads) and per update element (the assigned variable and the variables of
+// its right hand side); identical hyperedges are merged into one weighted edge
+//
+// the span of an edge under an order is the distance between its first and
+// last variable, the total weighted span is used as cost of an order
+public class InteractionGraph {
+
+  int numVars;
+  SymbolTable vars;
+
+  // edges[e] are the variable IDs of edge e, sorted
+  int[][] edges;
+  int[] edgeWeight;
+  // varEdges[v] are the edges containing v
+  int[][] varEdges;
+
+  public InteractionGraph(PrismAnalyse analysis) {
+    vars = analysis.vars;
+    numVars = vars.size();
+
+    HashMap<String, Integer> edgeIndex = new HashMap<>();
+    ArrayList<int[]> edgeList = new ArrayList<>();
+    ArrayList<Integer> weights = new ArrayList<>();
+
+    ModulesFile mf = analysis.mf;
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        addEdge(PrismAnalyse.toIds(analysis.support(c.getGuard())), edgeIndex, edgeList, weights);
+
+        Updates us = c.getUpdates();
+        for (int k = 0; k < us.getNumUpdates(); k++) {
+          Update u = us.getUpdate(k);
+          for (int l = 0; l < u.getNumElements(); l++) {
+            long[] vars = PrismAnalyse.addVar(analysis.support(u.getExpression(l)), analysis.varId(u.getVar(l)));
+            addEdge(PrismAnalyse.toIds(vars), edgeIndex, edgeList, weights);
+          }
+        }
+      }
+    }
+
+    edges = edgeList.toArray(new int[edgeList.size()][]);
+    edgeWeight = new int[edges.length];
+    int[] degree = new int[numVars];
+    for (int e = 0; e < edges.length; e++) {
+      edgeWeight[e] = weights.get(e);
+      for (int v : edges[e]) {
+        degree[v]++;
+      }
+    }
+    varEdges = new int[numVars][];
+    for (int v = 0; v < numVars; v++) {
+      varEdges[v] = new int[degree[v]];
+      degree[v] = 0;
+    }
+    for (int e = 0; e < edges.length; e++) {
+      for (int v : edges[e]) {
+        varEdges[v][degree[v]++] = e;
+      }
+    }
+  }
+
+  // edges with a single variable never have a span and are dropped
+  static void addEdge(int[] vars, HashMap<String, Integer> edgeIndex, List<int[]> edgeList, List<Integer> weights) {
+    if (vars.length < 2) {
+      return;
+    }
+    String key = Arrays.toString(vars);
+    Integer e = edgeIndex.get(key);
+    if (e == null) {
+      edgeIndex.put(key, edgeList.size());
+      edgeList.add(vars);
+      weights.add(1);
+    } else {
+      weights.set(e, weights.get(e) + 1);
+    }
+  }
+
+  int[] toIds(List<String> order) {
+    int[] ids = new int[order.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = vars.lookup(order.get(i));
+    }
+    return ids;
+  }
+
+  List<String> toNames(int[] order) {
+    ArrayList<String> names = new ArrayList<>();
+    for (int v : order) {
+      names.add(vars.name(v));
+    }
+    return names;
+  }
+
+  // pos[v] is the position of variable v in order
+  static int[] positions(int[] order) {
+    int[] pos = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      pos[order[i]] = i;
+    }
+    return pos;
+  }
+
+  long edgeSpan(int e, int[] pos) {
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (int v : edges[e]) {
+      min = Math.min(min, pos[v]);
+      max = Math.max(max, pos[v]);
+    }
+    return (long) edgeWeight[e] * (max - min);
+  }
+
+  long span(int[] order) {
+    int[] pos = positions(order);
+    long total = 0;
+    for (int e = 0; e < edges.length; e++) {
+      total += edgeSpan(e, pos);
+    }
+    return total;
+  }
+
+  long span(List<String> order) {
+    return span(toIds(order));
+  }
+
+  // movable variables (positions from fixed on) sorted by key, ties keep
+  // their relative order
+  static int[] sortByKey(int[] order, int fixed, double[] key) {
+    Integer[] movable = new Integer[order.length - fixed];
+    for (int i = fixed; i < order.length; i++) {
+      movable[i - fixed] = order[i];
+    }
+    Arrays.sort(movable, Comparator.comparingDouble(v -> key[v]));
+    int[] sorted = order.clone();
+    for (int i = fixed; i < order.length; i++) {
+      sorted[i] = movable[i - fixed];
+    }
+    return sorted;
+  }
+
+  // FORCE: every variable moves to the mean center of gravity of its edges,
+  // repeated until the span does not improve any more
+  int[] forceOrder(int[] initial, int fixed, int maxIterations) {
+    int[] order = initial.clone();
+    int[] best = order;
+    long bestSpan = span(order);
+    double[] cog = new double[edges.length];
+    double[] key = new double[numVars];
+
+    for (int it = 0; it < maxIterations; it++) {
+      int[] pos = positions(order);
+      for (int e = 0; e < edges.length; e++) {
+        double sum = 0;
+        for (int v : edges[e]) {
+          sum += pos[v];
+        }
+        cog[e] = sum / edges[e].length;
+      }
+      for (int v = 0; v < numVars; v++) {
+        if (varEdges[v].length == 0) {
+          key[v] = pos[v];
+          continue;
+        }
+        double sum = 0;
+        double weight = 0;
+        for (int e : varEdges[v]) {
+          sum += edgeWeight[e] * cog[e];
+          weight += edgeWeight[e];
+        }
+        key[v] = sum / weight;
+      }
+      order = sortByKey(order, fixed, key);
+      long orderSpan = span(order);
+      if (orderSpan >= bestSpan) {
+        break;
+      }
+      best = order;
+      bestSpan = orderSpan;
+    }
+    return best;
+  }
+
+  // spectral order: variables sorted by the Fiedler vector of the Laplacian of
+  // the clique expansion (each pair of an edge weighted weight / (|e| - 1)),
+  // computed by power iteration on cI - L orthogonal to the constant vector
+  int[] spectralOrder(int[] initial, int fixed, int maxIterations) {
+    double[] pairWeight = new double[edges.length];
+    double[] degree = new double[numVars];
+    double maxDegree = 0;
+    for (int e = 0; e < edges.length; e++) {
+      pairWeight[e] = (double) edgeWeight[e] / (edges[e].length - 1);
+      for (int v : edges[e]) {
+        degree[v] += edgeWeight[e];
+      }
+    }
+    for (int v = 0; v < numVars; v++) {
+      maxDegree = Math.max(maxDegree, degree[v]);
+    }
+    double shift = 2 * maxDegree;
+
+    // start from the given order so that ties and the orientation follow it
+    int[] pos = positions(initial);
+    double[] x = new double[numVars];
+    for (int v = 0; v < numVars; v++) {
+      x[v] = pos[v];
+    }
+    normalize(x);
+    double[] y = new double[numVars];
+
+    for (int it = 0; it < maxIterations; it++) {
+      // y = (cI - L) x, L x = D x - A x
+      for (int v = 0; v < numVars; v++) {
+        y[v] = (shift - degree[v]) * x[v];
+      }
+      for (int e = 0; e < edges.length; e++) {
+        double sum = 0;
+        for (int v : edges[e]) {
+          sum += x[v];
+        }
+        for (int v : edges[e]) {
+          y[v] += pairWeight[e] * (sum - x[v]);
+        }
+      }
+      normalize(y);
+      double change = 0;
+      for (int v = 0; v < numVars; v++) {
+        change = Math.max(change, Math.abs(y[v] - x[v]));
+      }
+      double[] tmp = x;
+      x = y;
+      y = tmp;
+      if (change < 1e-10) {
+        break;
+      }
+    }
+
+    double correlation = 0;
+    for (int v = 0; v < numVars; v++) {
+      correlation += x[v] * pos[v];
+    }
+    if (correlation < 0) {
+      for (int v = 0; v < numVars; v++) {
+        x[v] = -x[v];
+      }
+    }
+    return sortByKey(initial, fixed, x);
+  }
+
+  // removes the mean and scales to unit length
+  static void normalize(double[] x) {
+    double mean = 0;
+    for (double value : x) {
+      mean += value;
+    }
+    mean /= Math.max(1, x.length);
+    double norm = 0;
+    for (int v = 0; v < x.length; v++) {
+      x[v] -= mean;
+      norm += x[v] * x[v];
+    }
+    norm = Math.sqrt(norm);
+    if (norm > 0) {
+      for (int v = 0; v < x.length; v++) {
+        x[v] /= norm;
+      }
+    }
+  }
+}
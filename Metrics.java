@@ -0,0 +1,231 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// instrumentation of a run: the analysis phases and the ranking iterations
+// are committed as JFR events (record with
+// java -XX:StartFlightRecording=filename=run.jfr PrismAnalyse ...) and summed
+// up here for the summary printed with -metrics text|json
+//
+// allocation is that of the thread running the phase, work done by the
+// workers of the parallel ranking is not included
+public class Metrics {
+
+  @Name("prismAnalyse.Phase")
+  @Label("Analysis Phase")
+  @Category("prismAnalyse")
+  static class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  @Name("prismAnalyse.RankIteration")
+  @Label("Ranking Iteration")
+  @Category("prismAnalyse")
+  static class RankIterationEvent extends Event {
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Variable")
+    String variable;
+
+    @Label("Weight")
+    double weight;
+
+    @Label("Commands Evaluated")
+    int commands;
+
+    @Label("Nodes Visited")
+    long nodes;
+
+    @Label("Weighted Variables")
+    int weighted;
+  }
+
+  class Phase implements AutoCloseable {
+    String name;
+    long start;
+    long startAllocated;
+    PhaseEvent event = new PhaseEvent();
+
+    Phase(String name) {
+      this.name = name;
+      event.phase = name;
+      startAllocated = allocatedBytes();
+      event.begin();
+      start = System.nanoTime();
+    }
+
+    public void close() {
+      long nanos = System.nanoTime() - start;
+      long allocated = allocatedBytes() - startAllocated;
+      event.allocated = allocated;
+      event.commit();
+      // a phase entered several times (e.g. parse in watch mode) is summed
+      long[] total = phases.computeIfAbsent(name, k -> new long[3]);
+      total[0]++;
+      total[1] += nanos;
+      total[2] += allocated;
+    }
+  }
+
+  static class Iteration {
+    String variable;
+    double weight;
+    long nanos;
+    int commands;
+    long nodes;
+    int weighted;
+  }
+
+  // name -> count, nanoseconds, allocated bytes, in order of first use
+  LinkedHashMap<String, long[]> phases = new LinkedHashMap<>();
+  ArrayList<Iteration> iterations = new ArrayList<>();
+
+  // nodes of the support index (every AST node the support is computed for)
+  int supportNodes;
+  // length of the weight array, one entry per state variable
+  int weightSlots;
+
+  // work since the last pick, added to by the weight evaluations; the last
+  // evaluation of a ranking, which finds no variable left, belongs to no
+  // iteration
+  int iterationCommands;
+  long iterationNodes;
+  long iterationStart;
+  RankIterationEvent iterationEvent;
+
+  // bytes allocated by the current thread so far, 0 where the JVM does not
+  // count them
+  static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  Phase phase(String name) {
+    return new Phase(name);
+  }
+
+  // called when a ranking starts and after each pick
+  void startIteration() {
+    iterationCommands = 0;
+    iterationNodes = 0;
+    iterationEvent = new RankIterationEvent();
+    iterationEvent.begin();
+    iterationStart = System.nanoTime();
+  }
+
+  // weighted is the number of variables that had a weight when variable was
+  // picked
+  void endIteration(String variable, double weight, int weighted) {
+    Iteration it = new Iteration();
+    it.variable = variable;
+    it.weight = weight;
+    it.nanos = System.nanoTime() - iterationStart;
+    it.commands = iterationCommands;
+    it.nodes = iterationNodes;
+    it.weighted = weighted;
+    iterations.add(it);
+
+    iterationEvent.iteration = iterations.size();
+    iterationEvent.variable = variable;
+    iterationEvent.weight = weight;
+    iterationEvent.commands = it.commands;
+    iterationEvent.nodes = it.nodes;
+    iterationEvent.weighted = weighted;
+    iterationEvent.commit();
+
+    startIteration();
+  }
+
+  long totalNodes() {
+    long n = 0;
+    for (Iteration it : iterations) {
+      n += it.nodes;
+    }
+    return n;
+  }
+
+  long totalCommands() {
+    long n = 0;
+    for (Iteration it : iterations) {
+      n += it.commands;
+    }
+    return n;
+  }
+
+  static String millis(long nanos) {
+    return String.valueOf(nanos / 1000000.0);
+  }
+
+  String toText() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("phase                 count        ms     allocated\n");
+    for (Map.Entry<String, long[]> e : phases.entrySet()) {
+      long[] t = e.getValue();
+      sb.append(String.format("%-20s %6d %9.1f %13d%n", e.getKey(), t[0], t[1] / 1e6, t[2]));
+    }
+    sb.append("support index nodes   ").append(supportNodes).append("\n");
+    sb.append("weight array slots    ").append(weightSlots).append("\n");
+    sb.append("rank iterations       ").append(iterations.size()).append("\n");
+    sb.append("commands evaluated    ").append(totalCommands()).append("\n");
+    sb.append("weight nodes visited  ").append(totalNodes()).append("\n");
+    Iteration slowest = null;
+    for (Iteration it : iterations) {
+      if (slowest == null || it.nanos > slowest.nanos) {
+        slowest = it;
+      }
+    }
+    if (slowest != null) {
+      sb.append(String.format("slowest iteration     %d (%s, %.1f ms, %d commands, %d nodes)%n",
+                              iterations.indexOf(slowest) + 1, slowest.variable, slowest.nanos / 1e6,
+                              slowest.commands, slowest.nodes));
+    }
+    return sb.toString();
+  }
+
+  String toJson() {
+    StringBuilder sb = new StringBuilder("{\"phases\":[");
+    int i = 0;
+    for (Map.Entry<String, long[]> e : phases.entrySet()) {
+      long[] t = e.getValue();
+      sb.append(i++ > 0 ? "," : "").append("{\"name\":").append(PrismBatch.jsonString(e.getKey()));
+      sb.append(",\"count\":").append(t[0]);
+      sb.append(",\"ms\":").append(millis(t[1]));
+      sb.append(",\"allocated_bytes\":").append(t[2]).append("}");
+    }
+    sb.append("]");
+    sb.append(",\"support_index_nodes\":").append(supportNodes);
+    sb.append(",\"weight_array_slots\":").append(weightSlots);
+    sb.append(",\"commands_evaluated\":").append(totalCommands());
+    sb.append(",\"weight_nodes_visited\":").append(totalNodes());
+    sb.append(",\"iterations\":[");
+    for (i = 0; i < iterations.size(); i++) {
+      Iteration it = iterations.get(i);
+      sb.append(i > 0 ? "," : "").append("{\"variable\":").append(PrismBatch.jsonString(it.variable));
+      sb.append(",\"weight\":").append(it.weight);
+      sb.append(",\"ms\":").append(millis(it.nanos));
+      sb.append(",\"commands\":").append(it.commands);
+      sb.append(",\"nodes\":").append(it.nodes);
+      sb.append(",\"weighted_variables\":").append(it.weighted).append("}");
+    }
+    sb.append("]}");
+    return sb.toString();
+  }
+}
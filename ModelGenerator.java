@@ -0,0 +1,139 @@
+import java.io.ByteArrayInputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import parser.ast.ModulesFile;
+
+// generates synthetic PRISM models of a given shape, used as benchmark
+// workloads
+public class ModelGenerator {
+
+  int modules = 4;
+  int commands = 10;
+  int variables = 16;
+  int guardDepth = 3;
+  int fanOut = 2;
+  int actions = 2;
+  int range = 7;
+  long seed = 42;
+
+  Random random;
+  ArrayList<ArrayList<String>> moduleVars;
+
+  // sets one parameter by name, as used on the command line
+  void set(String param, String value) {
+    switch (param) {
+    case "modules": modules = Integer.parseInt(value); break;
+    case "commands": commands = Integer.parseInt(value); break;
+    case "variables": variables = Integer.parseInt(value); break;
+    case "depth": guardDepth = Integer.parseInt(value); break;
+    case "fanout": fanOut = Integer.parseInt(value); break;
+    case "actions": actions = Integer.parseInt(value); break;
+    case "range": range = Integer.parseInt(value); break;
+    case "seed": seed = Long.parseLong(value); break;
+    default: throw new IllegalArgumentException("unknown generator parameter " + param);
+    }
+  }
+
+  String describe() {
+    return "modules=" + modules + " commands=" + commands + " variables=" + variables
+      + " depth=" + guardDepth + " fanout=" + fanOut + " actions=" + actions;
+  }
+
+  // variable of the given module most of the time, any variable otherwise
+  String pickVar(int module) {
+    if (random.nextInt(4) > 0) {
+      ArrayList<String> vars = moduleVars.get(module);
+      return vars.get(random.nextInt(vars.size()));
+    }
+    ArrayList<String> vars = moduleVars.get(random.nextInt(modules));
+    return vars.get(random.nextInt(vars.size()));
+  }
+
+  String intExpression(int module, int depth) {
+    if (depth == 0 || random.nextInt(3) == 0) {
+      return random.nextInt(3) > 0 ? pickVar(module) : String.valueOf(random.nextInt(range + 1));
+    }
+    switch (random.nextInt(4)) {
+    case 0: return "min(" + intExpression(module, depth - 1) + "+1, " + range + ")";
+    case 1: return "max(" + intExpression(module, depth - 1) + "-1, 0)";
+    case 2: return "min(" + intExpression(module, depth - 1) + ", " + intExpression(module, depth - 1) + ")";
+    default: return "max(" + intExpression(module, depth - 1) + ", " + intExpression(module, depth - 1) + ")";
+    }
+  }
+
+  String guard(int module, int depth) {
+    if (depth == 0) {
+      String[] ops = { "<", "<=", "=", "!=", ">", ">=" };
+      return pickVar(module) + ops[random.nextInt(ops.length)] + intExpression(module, 1);
+    }
+    switch (random.nextInt(4)) {
+    case 0: return guard(module, depth - 1) + " | " + guard(module, depth - 1);
+    case 1: return "!(" + guard(module, depth - 1) + ")";
+    default: return "(" + guard(module, depth - 1) + ") & (" + guard(module, depth - 1) + ")";
+    }
+  }
+
+  String update(int module) {
+    ArrayList<String> vars = moduleVars.get(module);
+    int elements = 1 + random.nextInt(Math.min(3, vars.size()));
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < elements; i++) {
+      String var = vars.get(random.nextInt(vars.size()));
+      if (sb.indexOf("(" + var + "'") >= 0) {
+        continue;
+      }
+      sb.append(sb.length() > 0 ? " & " : "");
+      sb.append("(").append(var).append("'=min(max(").append(intExpression(module, 2)).append(", 0), ")
+        .append(range).append("))");
+    }
+    return sb.toString();
+  }
+
+  String generate() {
+    random = new Random(seed);
+    moduleVars = new ArrayList<>();
+    for (int m = 0; m < modules; m++) {
+      moduleVars.add(new ArrayList<String>());
+    }
+    for (int v = 0; v < Math.max(variables, modules); v++) {
+      moduleVars.get(v % modules).add("v" + v);
+    }
+
+    StringBuilder sb = new StringBuilder("mdp\n\n");
+    for (int m = 0; m < modules; m++) {
+      sb.append("module M").append(m).append("\n\n");
+      for (String var : moduleVars.get(m)) {
+        sb.append("  ").append(var).append(" : [0..").append(range).append("] init 0;\n");
+      }
+      sb.append("\n");
+      for (int c = 0; c < commands; c++) {
+        String action = actions > 0 && random.nextInt(3) == 0 ? "a" + random.nextInt(actions) : "";
+        sb.append("  [").append(action).append("] ").append(guard(m, guardDepth)).append(" -> ");
+        for (int u = 0; u < fanOut; u++) {
+          sb.append(u > 0 ? " + " : "").append("1/").append(fanOut).append(" : ").append(update(m));
+        }
+        sb.append(";\n");
+      }
+      sb.append("\nendmodule\n\n");
+    }
+    return sb.toString();
+  }
+
+  ModulesFile generateModulesFile() throws Exception {
+    byte[] text = generate().getBytes(StandardCharsets.UTF_8);
+    return PrismAnalyse.parseModel(new ByteArrayInputStream(text));
+  }
+
+  // prints a model, e.g. java ModelGenerator -modules 8 -commands 100
+  public static void main(String[] args) {
+    ModelGenerator gen = new ModelGenerator();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      gen.set(args[i].substring(1), args[i + 1]);
+    }
+    System.out.print(gen.generate());
+  }
+}
@@ -0,0 +1,258 @@
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// what the ranking and the statistics need of a model, in a binary file that
+// is read through a memory mapping, so that a huge generated model is parsed
+// once and analysed many times without the Prism parser and AST
+//
+// file format, little endian (the order of the usual hosts, so that the
+// arrays are copied out of the mapping in bulk):
+//   int MAGIC, int VERSION
+//   string: state variables by ID, separated by newlines
+//   int n, n ints: module of each variable, -1 for globals
+//   int m, m ints: commands of each module
+//   string: actions by ID, separated by newlines
+//   per command, in module order:
+//     int action, -1 if unsynchronised
+//     int v, v ints: support, the IDs of the variables read or assigned in
+//                    ascending order
+//     int l, l ints: compiled weight tree (see compileCommand), whose guard
+//                    and update offsets give the update structure
+// a string is an int byte count followed by its UTF-8 bytes; the names are
+// decoded as one string, which is much faster than one string per name
+//
+// the commands can also be read one at a time without loading them, see
+// StreamingRanking
+public class ModelSnapshot {
+
+  static final int MAGIC = 0x50414e53;
+  static final int VERSION = 1;
+
+  SymbolTable vars = new SymbolTable();
+  int[] varModule;
+  int[] moduleCommands;
+  SymbolTable actions = new SymbolTable();
+  // null if only the header was read
+  int[] commandAction;
+  int[][] commandVars;
+  int[][] commandCode;
+
+  // where the commands start in file
+  Path file;
+  long commandsOffset;
+
+  // buffered writes to a channel
+  static class Output {
+    FileChannel channel;
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    Output(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    void ensure(int bytes) throws IOException {
+      if (buf.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+      buf.clear();
+    }
+
+    void putInt(int i) throws IOException {
+      ensure(4);
+      buf.putInt(i);
+    }
+
+    void putInts(int[] a) throws IOException {
+      putInt(a.length);
+      for (int from = 0; from < a.length; ) {
+        ensure(4);
+        int n = Math.min(a.length - from, buf.remaining() / 4);
+        buf.asIntBuffer().put(a, from, n);
+        buf.position(buf.position() + 4 * n);
+        from += n;
+      }
+    }
+
+    void putString(String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      putInt(bytes.length);
+      for (int from = 0; from < bytes.length; ) {
+        ensure(1);
+        int n = Math.min(bytes.length - from, buf.remaining());
+        buf.put(bytes, from, n);
+        from += n;
+      }
+    }
+  }
+
+  static void write(PrismAnalyse analysis, Path file) throws IOException {
+    ArrayList<PrismAnalyse.CommandInfo> cInfos = analysis.getCommandInfos();
+    if (analysis.varModule == null) {
+      analysis.populateStateVars();
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+      Output out = new Output(channel);
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putString(String.join("\n", analysis.vars.names));
+      out.putInts(Arrays.copyOf(analysis.varModule, analysis.vars.size()));
+      out.putInts(analysis.moduleCommands);
+      out.putString(String.join("\n", analysis.actions.names));
+      for (int c = 0; c < cInfos.size(); c++) {
+        PrismAnalyse.CommandInfo ci = cInfos.get(c);
+        out.putInt(analysis.commandAction[c]);
+        out.putInts(ci.vars);
+        out.putInts(ci.code);
+      }
+      out.flush();
+    }
+  }
+
+  // buffered reads from a channel, the counterpart of Output; arrays larger
+  // than the buffer are read in pieces, so any buffer of at least 4 bytes
+  // will do
+  static class Input {
+    FileChannel channel;
+    ByteBuffer buf;
+
+    Input(FileChannel channel, int bufferBytes) {
+      this.channel = channel;
+      buf = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+      buf.flip();
+    }
+
+    // continues reading at position of the file
+    void seek(long position) throws IOException {
+      channel.position(position);
+      buf.clear();
+      buf.flip();
+    }
+
+    long position() throws IOException {
+      return channel.position() - buf.remaining();
+    }
+
+    void ensure(int bytes) throws IOException {
+      if (buf.remaining() < bytes) {
+        buf.compact();
+        while (buf.position() < bytes) {
+          if (channel.read(buf) < 0) {
+            throw new EOFException("truncated model snapshot");
+          }
+        }
+        buf.flip();
+      }
+    }
+
+    int getInt() throws IOException {
+      ensure(4);
+      return buf.getInt();
+    }
+
+    // the next n ints into a
+    void getInts(int[] a, int n) throws IOException {
+      for (int from = 0; from < n; ) {
+        ensure(4);
+        // one int at a time, as a view buffer per call would be garbage
+        for (int end = from + Math.min(n - from, buf.remaining() / 4); from < end; from++) {
+          a[from] = buf.getInt();
+        }
+      }
+    }
+
+    void skipInts(int n) throws IOException {
+      while (n > 0) {
+        ensure(4);
+        int k = Math.min(n, buf.remaining() / 4);
+        buf.position(buf.position() + 4 * k);
+        n -= k;
+      }
+    }
+  }
+
+  static int[] readInts(ByteBuffer buf, int n) {
+    int[] a = new int[n];
+    buf.asIntBuffer().get(a);
+    buf.position(buf.position() + 4 * n);
+    return a;
+  }
+
+  // the variables, modules and actions of file, without the commands
+  static ModelSnapshot readHeader(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      Input in = new Input(channel, 1 << 16);
+      if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+        throw new IOException("not a model snapshot of this version: " + file);
+      }
+      ModelSnapshot s = new ModelSnapshot();
+      s.file = file;
+      readNames(in, s.vars);
+      s.varModule = new int[in.getInt()];
+      in.getInts(s.varModule, s.varModule.length);
+      s.moduleCommands = new int[in.getInt()];
+      in.getInts(s.moduleCommands, s.moduleCommands.length);
+      readNames(in, s.actions);
+      s.commandsOffset = in.position();
+      return s;
+    }
+  }
+
+  static void readNames(Input in, SymbolTable table) throws IOException {
+    byte[] bytes = new byte[in.getInt()];
+    for (int from = 0; from < bytes.length; ) {
+      in.ensure(1);
+      int k = Math.min(bytes.length - from, in.buf.remaining());
+      in.buf.get(bytes, from, k);
+      from += k;
+    }
+    String names = new String(bytes, StandardCharsets.UTF_8);
+    if (!names.isEmpty()) {
+      for (String name : names.split("\n")) {
+        table.id(name);
+      }
+    }
+  }
+
+  static ModelSnapshot read(Path file) throws IOException {
+    ModelSnapshot s = readHeader(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, s.commandsOffset,
+                                         channel.size() - s.commandsOffset);
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+
+      int nCommands = 0;
+      for (int n : s.moduleCommands) {
+        nCommands += n;
+      }
+      s.commandAction = new int[nCommands];
+      s.commandVars = new int[nCommands][];
+      s.commandCode = new int[nCommands][];
+      for (int c = 0; c < nCommands; c++) {
+        s.commandAction[c] = buf.getInt();
+        s.commandVars[c] = readInts(buf, buf.getInt());
+        s.commandCode[c] = readInts(buf, buf.getInt());
+      }
+      return s;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.io.Writer;
+
+import parser.ast.*;
+import parser.ast.Module;
+
+// writes a ModulesFile element by element instead of building the whole text
+// with mf.toString(), so that memory use does not grow with the model
+//
+// the default layout is that of ModulesFile.toString(); the compact layout
+// leaves out indentation and blank lines
+public class ModelWriter {
+
+  Writer out;
+  boolean compact;
+
+  public ModelWriter(Writer out, boolean compact) {
+    this.out = out;
+    this.compact = compact;
+  }
+
+  void blankLine() throws IOException {
+    if (!compact) {
+      out.write("\n");
+    }
+  }
+
+  void indent() throws IOException {
+    if (!compact) {
+      out.write("\t");
+    }
+  }
+
+  // lists of formulas, labels and constants are small, they are written as a
+  // whole
+  void writeList(String list) throws IOException {
+    if (list.length() > 0) {
+      out.write(list);
+      blankLine();
+    }
+  }
+
+  void write(ModulesFile mf) throws IOException {
+    out.write(mf.getModelType().toString().toLowerCase());
+    out.write("\n");
+    blankLine();
+
+    writeList(mf.getFormulaList().toString());
+    writeList(mf.getLabelList().toString());
+    writeList(mf.getConstantList().toString());
+
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      out.write("global ");
+      out.write(mf.getGlobal(i).toString());
+      out.write(";\n");
+    }
+    if (mf.getNumGlobals() > 0) {
+      blankLine();
+    }
+
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      if (i > 0) {
+        out.write("\n");
+        blankLine();
+      }
+      write(mf.getModule(i));
+    }
+    out.write("\n");
+
+    if (mf.getSystemDefn() != null) {
+      blankLine();
+      out.write("system " + mf.getSystemDefn() + " endsystem\n");
+    }
+
+    for (int i = 0; i < mf.getNumRewardStructs(); i++) {
+      blankLine();
+      out.write(mf.getRewardStruct(i).toString());
+    }
+
+    if (mf.getInitialStates() != null) {
+      blankLine();
+      out.write("init " + mf.getInitialStates() + " endinit\n");
+    }
+  }
+
+  void write(Module m) throws IOException {
+    out.write("module ");
+    out.write(m.getName());
+    out.write("\n");
+    blankLine();
+
+    for (int i = 0; i < m.getNumDeclarations(); i++) {
+      indent();
+      out.write(m.getDeclaration(i).toString());
+      out.write(";\n");
+    }
+    if (m.getNumDeclarations() > 0) {
+      blankLine();
+    }
+
+    if (m.getInvariant() != null) {
+      indent();
+      out.write("invariant\n");
+      indent();
+      indent();
+      out.write(m.getInvariant().toString());
+      out.write("\n");
+      indent();
+      out.write("endinvariant\n");
+      blankLine();
+    }
+
+    for (int i = 0; i < m.getNumCommands(); i++) {
+      indent();
+      out.write(m.getCommand(i).toString());
+      out.write(";\n");
+    }
+    blankLine();
+    out.write("endmodule");
+  }
+}
@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// a portfolio of cheap orderings scored by their total hyperedge span: the
+// declaration order, the weight ranking and the variables sorted by each of
+// the metrics of the statistics (guards, updates, guard and update
+// dependence), ascending and descending; the candidates are scored on
+// -threads threads and the one of the smallest span wins, ties to the
+// earlier candidate
+public class OrderPortfolio {
+
+  PrismAnalyse analysis;
+  int threads;
+
+  // candidates in order of construction, their effective orders (see
+  // PrismAnalyse.effectiveOrder) and spans
+  List<String> names = new ArrayList<>();
+  List<List<String>> orders = new ArrayList<>();
+  long[] spans;
+
+  public OrderPortfolio(PrismAnalyse analysis, int threads) {
+    this.analysis = analysis;
+    this.threads = threads;
+  }
+
+  void add(String name, List<String> ranked) {
+    names.add(name);
+    orders.add(analysis.effectiveOrder(ranked));
+  }
+
+  void addMetric(String name, ArrayList<PrismAnalyse.StateMetric> metrics) {
+    for (boolean ascending : new boolean[] { true, false }) {
+      // the sort is stable, equal metrics keep the declaration order
+      List<PrismAnalyse.StateMetric> sorted = new ArrayList<>(metrics);
+      Collections.sort(sorted, analysis.new StateMetricComparator(ascending));
+      List<String> ranked = new ArrayList<>();
+      for (PrismAnalyse.StateMetric m : sorted) {
+        ranked.add(m.getStateVar());
+      }
+      add(name + (ascending ? " ascending" : " descending"), ranked);
+    }
+  }
+
+  void score(InteractionGraph graph) throws Exception {
+    spans = new long[orders.size()];
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (List<String> order : orders) {
+        results.add(pool.submit(() -> graph.span(order)));
+      }
+      for (int i = 0; i < spans.length; i++) {
+        spans[i] = results.get(i).get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // the ranked variables of the winner, without the original globals; the
+  // candidates are printed by span
+  LinkedList<String> select() throws Exception {
+    add("declaration", new LinkedList<String>());
+    add("weight", analysis.rankVariables());
+    if (analysis.varModule == null) {
+      analysis.populateStateVars();
+    }
+    addMetric("guards", analysis.computeGuardNumbers());
+    addMetric("updates", analysis.computeVarUpdates());
+    addMetric("guard dependence", analysis.computeGuardDependence());
+    addMetric("update dependence", analysis.computeVarUpdateDependence());
+
+    score(new InteractionGraph(analysis));
+
+    List<Integer> bySpan = new ArrayList<>();
+    for (int i = 0; i < spans.length; i++) {
+      bySpan.add(i);
+    }
+    bySpan.sort((i, j) -> Long.compare(spans[i], spans[j]));
+    int best = bySpan.get(0);
+    if (!analysis.quiet) {
+      for (int rank = 0; rank < bySpan.size(); rank++) {
+        int i = bySpan.get(rank);
+        System.out.println("// portfolio " + (rank + 1) + ": " + names.get(i) + ", span " + spans[i]);
+      }
+      System.out.println("// order portfolio: " + names.get(best) + ", span " + spans[best]
+                         + " (declaration order: " + spans[0] + ")");
+    }
+    List<String> order = orders.get(best);
+    int nGlobals = analysis.mf.getNumGlobals();
+    return new LinkedList<>(order.subList(nGlobals, order.size()));
+  }
+}
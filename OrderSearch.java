@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// anytime local search for a variable order of low total hyperedge span,
+// started from a given (heuristic) order
+//
+// every thread runs its own simulated annealing chain of swap and shift
+// (sifting) moves; chains publish improvements to a shared best order and
+// continue from it when another chain has found a better one
+public class OrderSearch {
+
+  // moves between checks of the clock
+  static final int CLOCK_MOVES = 256;
+  // moves between synchronisations with the shared best order
+  static final int SYNC_MOVES = 1 << 14;
+  // final temperature relative to the initial one
+  static final double COOLING = 1e-3;
+
+  InteractionGraph graph;
+  // the first fixed positions of the order are not moved
+  int fixed;
+  long budgetNanos;
+  int threads;
+  long seed = 42;
+
+  long start;
+  int[] bestOrder;
+  long bestSpan;
+  // {milliseconds since start, span} for every improvement of the best order
+  ArrayList<long[]> history = new ArrayList<>();
+
+  public OrderSearch(InteractionGraph graph, int fixed, long budgetMillis, int threads) {
+    this.graph = graph;
+    this.fixed = fixed;
+    this.budgetNanos = budgetMillis * 1000000L;
+    this.threads = threads;
+  }
+
+  synchronized void offer(int[] order, long span) {
+    if (span < bestSpan) {
+      bestSpan = span;
+      bestOrder = order.clone();
+      history.add(new long[] { (System.nanoTime() - start) / 1000000, span });
+    }
+  }
+
+  synchronized Chain adoptBest(Chain chain) {
+    if (bestSpan < chain.span) {
+      chain.reset(bestOrder, bestSpan);
+    }
+    return chain;
+  }
+
+  class Chain implements Callable<Void> {
+    Random random;
+    int[] order;
+    int[] pos;
+    long span;
+
+    // edges touched by the current move, deduplicated by stamp
+    int[] affected;
+    int nAffected;
+    int[] edgeStamp;
+    int stamp;
+
+    Chain(int[] initial, long initialSpan, long chainSeed) {
+      random = new Random(chainSeed);
+      affected = new int[graph.edges.length];
+      edgeStamp = new int[graph.edges.length];
+      reset(initial, initialSpan);
+    }
+
+    void reset(int[] newOrder, long newSpan) {
+      order = newOrder.clone();
+      pos = InteractionGraph.positions(order);
+      span = newSpan;
+    }
+
+    void collectEdges(int from, int to) {
+      stamp++;
+      nAffected = 0;
+      for (int i = from; i <= to; i++) {
+        for (int e : graph.varEdges[order[i]]) {
+          if (edgeStamp[e] != stamp) {
+            edgeStamp[e] = stamp;
+            affected[nAffected++] = e;
+          }
+        }
+      }
+    }
+
+    void collectEdges(int i, int j, boolean swap) {
+      if (!swap) {
+        collectEdges(Math.min(i, j), Math.max(i, j));
+        return;
+      }
+      collectEdges(i, i);
+      for (int e : graph.varEdges[order[j]]) {
+        if (edgeStamp[e] != stamp) {
+          edgeStamp[e] = stamp;
+          affected[nAffected++] = e;
+        }
+      }
+    }
+
+    long affectedSpan() {
+      long total = 0;
+      for (int k = 0; k < nAffected; k++) {
+        total += graph.edgeSpan(affected[k], pos);
+      }
+      return total;
+    }
+
+    // swaps positions i and j, or moves the variable at i to position j
+    void move(int i, int j, boolean swap) {
+      if (swap) {
+        int v = order[i];
+        order[i] = order[j];
+        order[j] = v;
+        pos[order[i]] = i;
+        pos[order[j]] = j;
+      } else {
+        int v = order[i];
+        int step = i < j ? 1 : -1;
+        for (int k = i; k != j; k += step) {
+          order[k] = order[k + step];
+          pos[order[k]] = k;
+        }
+        order[j] = v;
+        pos[v] = j;
+      }
+    }
+
+    void undo(int i, int j, boolean swap) {
+      move(swap ? i : j, swap ? j : i, swap);
+    }
+
+    // span difference of a move, the move is applied
+    long tryMove(int i, int j, boolean swap) {
+      collectEdges(i, j, swap);
+      long before = affectedSpan();
+      move(i, j, swap);
+      return affectedSpan() - before;
+    }
+
+    double initialTemperature(int movable) {
+      long sum = 0;
+      int samples = 0;
+      for (int s = 0; s < 100; s++) {
+        int i = fixed + random.nextInt(movable);
+        int j = fixed + random.nextInt(movable);
+        if (i != j) {
+          sum += Math.abs(tryMove(i, j, true));
+          undo(i, j, true);
+          samples++;
+        }
+      }
+      return samples > 0 && sum > 0 ? (double) sum / samples : 1;
+    }
+
+    public Void call() {
+      int movable = order.length - fixed;
+      if (movable < 2) {
+        return null;
+      }
+      int maxShift = Math.max(1, movable / 8);
+      double t0 = initialTemperature(movable);
+      double temperature = t0;
+      long moves = 0;
+      long chainBest = span;
+
+      while (true) {
+        moves++;
+        if (moves % CLOCK_MOVES == 0) {
+          double elapsed = (double) (System.nanoTime() - start) / budgetNanos;
+          if (elapsed >= 1) {
+            break;
+          }
+          temperature = t0 * Math.pow(COOLING, elapsed);
+        }
+        if (moves % SYNC_MOVES == 0) {
+          adoptBest(this);
+          chainBest = Math.min(chainBest, span);
+        }
+
+        boolean swap = random.nextBoolean();
+        int i = fixed + random.nextInt(movable);
+        int j;
+        if (swap) {
+          j = fixed + random.nextInt(movable);
+        } else {
+          j = i + random.nextInt(2 * maxShift + 1) - maxShift;
+          j = Math.max(fixed, Math.min(order.length - 1, j));
+        }
+        if (i == j) {
+          continue;
+        }
+
+        long delta = tryMove(i, j, swap);
+        if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+          span += delta;
+          if (span < chainBest) {
+            chainBest = span;
+            offer(order, span);
+          }
+        } else {
+          undo(i, j, swap);
+        }
+      }
+      return null;
+    }
+  }
+
+  // best order found within the budget, starting from initial
+  List<String> search(List<String> initial) throws Exception {
+    int[] order = graph.toIds(initial);
+    start = System.nanoTime();
+    bestOrder = order.clone();
+    bestSpan = graph.span(order);
+    history.add(new long[] { 0, bestSpan });
+
+    ArrayList<Chain> chains = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      chains.add(new Chain(order, bestSpan, seed + t));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      pool.invokeAll(chains);
+    } finally {
+      pool.shutdown();
+    }
+    return graph.toNames(bestOrder);
+  }
+}
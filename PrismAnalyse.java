@@ -1,18 +1,43 @@
-import java.io.FileInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 import parser.*;
 import parser.ast.*;
-import parser.type.TypeInt;
+import parser.ast.Module;
+import parser.visitor.ASTTraverse;
 import prism.ModelType;
+import prism.PrismLangException;
 
+// the phases are timed by try (Metrics.Phase p = metrics.phase(...)), p is
+// only there to be closed
+@SuppressWarnings("try")
 public class PrismAnalyse {
 
   class StateMetric {
@@ -58,106 +83,312 @@ public class PrismAnalyse {
 
   ModulesFile mf;
 
-  HashSet<String> stateVariables;
-  HashSet<String> constantSet;
-  HashSet<String> modules;
-  HashMap<String, String> varModuleMap;
-  HashMap<String, Expression> formulaExpressionMap;
-  HashMap<String, ArrayList<String>> moduleVarListMap;
-  HashMap<String, HashSet<String>> stateVarDependencies;
-  HashMap<String, HashSet<String>> constantDependencies;
-
-  void getExpressionStateVars(Expression e, HashSet<String> stateSet) {
-    if (e instanceof ExpressionConstant) {
-      return;
-    } else if (e instanceof ExpressionLiteral) {
-      return;
-    } else if (e instanceof ExpressionBinaryOp) {
-      ExpressionBinaryOp binOp = (ExpressionBinaryOp) e;
-      getExpressionStateVars(binOp.getOperand1(), stateSet);
-      getExpressionStateVars(binOp.getOperand2(), stateSet);
-    } else if (e instanceof ExpressionUnaryOp) {
-      ExpressionUnaryOp unaryOp = (ExpressionUnaryOp) e;
-      getExpressionStateVars(unaryOp.getOperand(), stateSet);
-    } else if (e instanceof ExpressionVar) {
-      ExpressionVar eVar = (ExpressionVar) e;
-      stateSet.add(eVar.getName());
-    } else if (e instanceof ExpressionConstant) {
+  // suppresses all output to stdout, warnings are still collected (each
+  // message once)
+  boolean quiet;
+  ArrayList<String> warnings = new ArrayList<>();
+
+  void warning(String msg) {
+    if (warnings.contains(msg)) {
       return;
-    } else if (e instanceof ExpressionFunc) {
-      ExpressionFunc eFunc = (ExpressionFunc) e;
-      for (int i = 0; i < eFunc.getNumOperands(); i++) {
-        getExpressionStateVars(eFunc.getOperand(i), stateSet);
+    }
+    warnings.add(msg);
+    if (!quiet) {
+      System.out.println("WARNING: " + msg);
+    }
+  }
+
+  static PrismParser parser;
+
+  // the Prism parser is a static JavaCC parser, so there is only a single
+  // instance and calls to it are serialised
+  static ModulesFile parseModel(InputStream in) throws Exception {
+    return parseModel(in, new Metrics());
+  }
+
+  static synchronized ModulesFile parseModel(InputStream in, Metrics metrics) throws Exception {
+    if (parser == null) {
+      parser = new PrismParser();
+    }
+    ModulesFile mf;
+    try (Metrics.Phase p = metrics.phase("parse")) {
+      mf = parser.parseModulesFile(in);
+    }
+    try (Metrics.Phase p = metrics.phase("tidyUp")) {
+      mf.tidyUp();
+    }
+    return mf;
+  }
+
+  static synchronized PropertiesFile parseProperties(ModulesFile mf, InputStream in) throws Exception {
+    if (parser == null) {
+      parser = new PrismParser();
+    }
+    PropertiesFile pf = parser.parsePropertiesFile(mf, in);
+    pf.tidyUp();
+    return pf;
+  }
+
+  // state variables are numbered in declaration order (globals first),
+  // constants in the order of the constant list followed by the literals
+  // found by getExpressionConstants(); sets of either are bitsets over these
+  // IDs
+  SymbolTable vars;
+  SymbolTable constants;
+
+  // filled by the populate* methods
+  long[] stateVariables;
+  long[] constantSet;
+  // module index of each state variable, -1 for globals
+  int[] varModule;
+  int[][] moduleVars;
+  // definitions of the formulas and labels of the model by name, through
+  // which ExpressionVisitor resolves references
+  HashMap<String, Expression> formulas;
+  HashMap<String, Expression> labels;
+  // indexed by state variable: variables and constants read by its updates
+  long[][] stateVarDependencies;
+  long[][] constantDependencies;
+
+  // support (state variables read) of every node of the guards, update
+  // expressions and formula bodies, computed once after tidyUp(); a formula
+  // reference shares the entry of the definition it resolves to
+  IdentityHashMap<Expression, long[]> supportIndex;
+  // constants read by the formula and label definitions, filled on first use
+  IdentityHashMap<Expression, long[]> definitionConstants = new IdentityHashMap<>();
+
+  static final long[] EMPTY_SUPPORT = new long[0];
+
+  int varId(String varName) {
+    return vars.id(varName);
+  }
+
+  static long[] addVar(long[] set, int id) {
+    int word = id >>> 6;
+    long[] result = new long[Math.max(set.length, word + 1)];
+    System.arraycopy(set, 0, result, 0, set.length);
+    result[word] |= 1L << id;
+    return result;
+  }
+
+  static long[] union(long[] s1, long[] s2) {
+    if (s1.length < s2.length) {
+      long[] tmp = s1;
+      s1 = s2;
+      s2 = tmp;
+    }
+    if (s2.length == 0) {
+      return s1;
+    }
+    long[] result = s1.clone();
+    for (int i = 0; i < s2.length; i++) {
+      result[i] |= s2[i];
+    }
+    return result;
+  }
+
+  static boolean contains(long[] set, int id) {
+    int word = id >>> 6;
+    return word < set.length && (set[word] & (1L << id)) != 0;
+  }
+
+  // true iff set AND-NOT excl is non-empty
+  static boolean hasSupport(long[] set, long[] excl) {
+    for (int i = 0; i < set.length; i++) {
+      long mask = i < excl.length ? excl[i] : 0;
+      if ((set[i] & ~mask) != 0) {
+        return true;
       }
-    } else {
-      System.out.println("WARNING: unsupported expression type found! " + e);
-    }
-  }
-
-  void getExpressionConstants(Expression e, HashSet<String> stateSet) {
-    if (e instanceof ExpressionConstant) {
-      ExpressionConstant eConst = (ExpressionConstant) e;
-      stateSet.add(eConst.getName());
-    } else if (e instanceof ExpressionLiteral) {
-      ExpressionLiteral eLit = (ExpressionLiteral) e;
-      stateSet.add(eLit.toString());
-    } else if (e instanceof ExpressionBinaryOp) {
-      ExpressionBinaryOp binOp = (ExpressionBinaryOp) e;
-      getExpressionConstants(binOp.getOperand1(), stateSet);
-      getExpressionConstants(binOp.getOperand2(), stateSet);
-    } else if (e instanceof ExpressionUnaryOp) {
-      ExpressionUnaryOp unaryOp = (ExpressionUnaryOp) e;
-      getExpressionConstants(unaryOp.getOperand(), stateSet);
-    } else if (e instanceof ExpressionVar) {
-      return;
-    } else if (e instanceof ExpressionConstant) {
-      ExpressionConstant eConst = (ExpressionConstant) e;
-      stateSet.add(eConst.getName());
-    } else if (e instanceof ExpressionFunc) {
-      ExpressionFunc eFunc = (ExpressionFunc) e;
-      for (int i = 0; i < eFunc.getNumOperands(); i++) {
-        getExpressionConstants(eFunc.getOperand(i), stateSet);
+    }
+    return false;
+  }
+
+  long[] support(Expression e) {
+    long[] s = supportIndex.get(e);
+    return s != null ? s : indexSupport(e);
+  }
+
+  boolean isExcluded(String varName, long[] statesExcl) {
+    return contains(statesExcl, varId(varName));
+  }
+
+  // support of an expression, every node visited is added to the support
+  // index, so a formula definition is only analysed for its first reference
+  class SupportVisitor extends ExpressionVisitor<long[]> {
+
+    SupportVisitor() {
+      super(PrismAnalyse.this.formulas, PrismAnalyse.this.labels);
+    }
+
+    long[] visit(Expression e) {
+      long[] s = supportIndex.get(e);
+      if (s == null) {
+        s = super.visit(e);
+        supportIndex.put(e, s);
       }
-    } else {
-      System.out.println("WARNING: unsupported expression type found! " + e);
+      return s;
+    }
+
+    long[] visitVar(ExpressionVar e) {
+      return addVar(EMPTY_SUPPORT, varId(e.getName()));
+    }
+
+    long[] visitConstant(ExpressionConstant e) {
+      return EMPTY_SUPPORT;
+    }
+
+    long[] visitLiteral(ExpressionLiteral e) {
+      return EMPTY_SUPPORT;
+    }
+
+    long[] visitOperator(Expression e, int nOperands) {
+      long[] s = EMPTY_SUPPORT;
+      for (int i = 0; i < nOperands; i++) {
+        s = union(s, visit(operand(e, i)));
+      }
+      return s;
+    }
+
+    // every expression of the model is indexed once, so what the analyses
+    // can only approximate is reported here
+    long[] visitOther(Expression e) {
+      warning("expression kind " + e.getClass().getSimpleName() + " is weighted as an operator over its variables: " + e);
+      return super.visitOther(e);
+    }
+
+    long[] visitReference(Expression e, Expression definition) {
+      if (definition == null) {
+        warning("no definition of " + e + ", it reads no variables");
+      }
+      return super.visitReference(e, definition);
+    }
+  }
+
+  // computes the support of e and all its subexpressions
+  long[] indexSupport(Expression e) {
+    return new SupportVisitor().visit(e);
+  }
+
+  void buildSupportIndex() {
+
+    internVars();
+    populateFormulas();
+
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        indexSupport(c.getGuard());
+
+        Updates us = c.getUpdates();
+        for (int k = 0; k < us.getNumUpdates(); k++) {
+          Update u = us.getUpdate(k);
+          for (int l = 0; l < u.getNumElements(); l++) {
+            indexSupport(u.getExpression(l));
+          }
+        }
+      }
+    }
+
+    FormulaList fList = mf.getFormulaList();
+    for (int i = 0; i < fList.size(); i++) {
+      indexSupport(fList.getFormula(i));
+    }
+  }
+
+  void internVars() {
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      varId(mf.getGlobal(i).getName());
+    }
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumDeclarations(); j++) {
+        varId(m.getDeclaration(j).getName());
+      }
+    }
+  }
+
+  // constants and literals (by their text) read by an expression
+  class ConstantsVisitor extends ExpressionVisitor<long[]> {
+
+    ConstantsVisitor() {
+      super(PrismAnalyse.this.formulas, PrismAnalyse.this.labels);
+    }
+
+    long[] visitVar(ExpressionVar e) {
+      return EMPTY_SUPPORT;
+    }
+
+    long[] visitConstant(ExpressionConstant e) {
+      return addVar(EMPTY_SUPPORT, constants.id(e.getName()));
+    }
+
+    long[] visitLiteral(ExpressionLiteral e) {
+      return addVar(EMPTY_SUPPORT, constants.id(e.toString()));
+    }
+
+    long[] visitOperator(Expression e, int nOperands) {
+      long[] s = EMPTY_SUPPORT;
+      for (int i = 0; i < nOperands; i++) {
+        s = union(s, visit(operand(e, i)));
+      }
+      return s;
+    }
+
+    long[] visitReference(Expression e, Expression definition) {
+      if (definition == null) {
+        return EMPTY_SUPPORT;
+      }
+      long[] s = definitionConstants.get(definition);
+      if (s == null) {
+        s = visit(definition);
+        definitionConstants.put(definition, s);
+      }
+      return s;
     }
   }
 
+  long[] getExpressionConstants(Expression e) {
+    return new ConstantsVisitor().visit(e);
+  }
+
   void populateStateVars() {
 
+    varModule = new int[vars.size()];
+    moduleVars = new int[mf.getNumModules()][];
+
     // get all global state variables
     for (int i = 0; i < mf.getNumGlobals(); i++) {
-      Declaration decl = mf.getGlobal(i);
-
-      stateVariables.add(decl.getName());
-      //System.out.println("global:" + decl.getName());
+      int id = varId(mf.getGlobal(i).getName());
+      stateVariables = addVar(stateVariables, id);
+      varModule[id] = -1;
     }
 
     // get all modules
     for (int i = 0; i < mf.getNumModules(); i++) {
       Module m = mf.getModule(i);
-
-      modules.add(m.getName());
-      moduleVarListMap.put(m.getName(), new ArrayList<String>());
-      //System.out.println("module:" + m.getName());
-
+      moduleVars[i] = new int[m.getNumDeclarations()];
 
       // extract state variables of module
       for (int j = 0; j < m.getNumDeclarations(); j++) {
-        Declaration decl = m.getDeclaration(j);
-
-        stateVariables.add(decl.getName());
-        varModuleMap.put(decl.getName(), m.getName());
-        //System.out.println(m.getName() + "->" + decl.getName());
-        moduleVarListMap.get(m.getName()).add(decl.getName());
+        int id = varId(m.getDeclaration(j).getName());
+        stateVariables = addVar(stateVariables, id);
+        varModule[id] = i;
+        moduleVars[i][j] = id;
       }
     }
   }
 
   void populateFormulas() {
-    for (int i = 0; i < mf.getFormulaList().size(); i++) {
-      formulaExpressionMap.put(mf.getFormulaList().getFormulaName(i),
-                               mf.getFormulaList().getFormula(i));
+    FormulaList fList = mf.getFormulaList();
+    formulas = new HashMap<>();
+    for (int i = 0; i < fList.size(); i++) {
+      formulas.put(fList.getFormulaName(i), fList.getFormula(i));
+    }
+    LabelList lList = mf.getLabelList();
+    labels = new HashMap<>();
+    for (int i = 0; i < lList.size(); i++) {
+      labels.put(lList.getLabelName(i), lList.getLabel(i));
     }
   }
 
@@ -166,178 +397,349 @@ public class PrismAnalyse {
     ConstantList cList = mf.getConstantList();
 
     for (int i = 0; i < cList.size(); i++) {
-      constantSet.add(cList.getConstantName(i));
+      constantSet = addVar(constantSet, constants.id(cList.getConstantName(i)));
     }
 
   }
 
   void populateCommands() {
 
-    stateVarDependencies = new HashMap<>();
-    constantDependencies = new HashMap<>();
-
-    for (String stateVar : stateVariables) {
-      stateVarDependencies.put(stateVar, new HashSet<String>());
-      constantDependencies.put(stateVar, new HashSet<String>());
-    }
+    stateVarDependencies = new long[vars.size()][];
+    constantDependencies = new long[vars.size()][];
+    Arrays.fill(stateVarDependencies, EMPTY_SUPPORT);
+    Arrays.fill(constantDependencies, EMPTY_SUPPORT);
 
     for (int i = 0; i < mf.getNumModules(); i++) {
 
       Module m = mf.getModule(i);
 
       for (int j = 0; j < m.getNumCommands(); j++) {
-        Command c = m.getCommand(j);
-
-        Expression guard = c.getGuard();
-        HashSet<String> stateSet = new HashSet<>();
-        getExpressionStateVars(guard, stateSet);
-        // System.out.println(c.toString());
-        // System.out.println("guard states:" + stateSet);
-
-        Updates us = c.getUpdates();
+        Updates us = m.getCommand(j).getUpdates();
 
         for (int k = 0; k < us.getNumUpdates(); k++) {
           Update u = us.getUpdate(k);
 
           for (int l = 0; l < u.getNumElements(); l++) {
-
-            HashSet<String> dependencies = stateVarDependencies.get(u.getVar(l));
-            HashSet<String> constants = constantDependencies.get(u.getVar(l));
-
-            getExpressionStateVars(u.getExpression(l), dependencies);
-            getExpressionConstants(u.getExpression(l), constants);
-            //dependencies.remove(u.getVar(l));
+            int stateVar = varId(u.getVar(l));
+            stateVarDependencies[stateVar] = union(stateVarDependencies[stateVar], support(u.getExpression(l)));
+            constantDependencies[stateVar] = union(constantDependencies[stateVar], getExpressionConstants(u.getExpression(l)));
           }
         }
-        //System.out.println();
       }
     }
   }
 
-  // compute number of guards that contains this state var
-  int computeGuardNumber(String stateVar) {
-    int gNumber = 0;
-    for (int i = 0; i < mf.getNumModules(); i++) {
-      Module m = mf.getModule(i);
-      for (int j = 0; j < m.getNumCommands(); j++) {
-        Command c = m.getCommand(j);
-        Expression guard = c.getGuard();
-        HashSet<String> stateSet = new HashSet<>();
-        getExpressionStateVars(guard, stateSet);
-        if (stateSet.contains(stateVar)) {
-          gNumber++;
+  // counts indexed by pairs of variable IDs, dense for up to
+  // DENSE_MATRIX_VARS variables, otherwise an open addressing hash map
+  class CountMatrix {
+    static final int DENSE_MATRIX_VARS = 2048;
+
+    int n;
+    int[] dense;
+    long[] keys;
+    int[] values;
+    int entries;
+
+    public CountMatrix(int n) {
+      this.n = n;
+      if (n <= DENSE_MATRIX_VARS) {
+        dense = new int[n * n];
+      } else {
+        keys = new long[1024];
+        values = new int[1024];
+        Arrays.fill(keys, -1);
+      }
+    }
+
+    int slot(long key) {
+      int mask = keys.length - 1;
+      int i = (int) (key ^ (key >>> 29)) * 0x9E3779B9 & mask;
+      while (keys[i] != -1 && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      return i;
+    }
+
+    void increment(int row, int col) {
+      if (dense != null) {
+        dense[row * n + col]++;
+        return;
+      }
+      long key = (long) row * n + col;
+      int i = slot(key);
+      if (keys[i] == -1) {
+        if (2 * (entries + 1) > keys.length) {
+          rehash();
+          i = slot(key);
+        }
+        keys[i] = key;
+        entries++;
+      }
+      values[i]++;
+    }
+
+    void rehash() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[2 * oldKeys.length];
+      values = new int[2 * oldKeys.length];
+      Arrays.fill(keys, -1);
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != -1) {
+          int j = slot(oldKeys[i]);
+          keys[j] = oldKeys[i];
+          values[j] = oldValues[i];
+        }
+      }
+    }
+
+    int get(int row, int col) {
+      if (dense != null) {
+        return dense[row * n + col];
+      }
+      int i = slot((long) row * n + col);
+      return keys[i] == -1 ? 0 : values[i];
+    }
+
+    int[] columnSums() {
+      int[] sums = new int[n];
+      if (dense != null) {
+        for (int i = 0; i < dense.length; i++) {
+          sums[i % n] += dense[i];
+        }
+      } else {
+        for (int i = 0; i < keys.length; i++) {
+          if (keys[i] != -1) {
+            sums[(int) (keys[i] % n)] += values[i];
+          }
         }
       }
+      return sums;
     }
-    return gNumber;
   }
 
-  // counts in how many different updates stateVar appears this includes every
-  // summand of a probabilistic or non-deterministic choice
-  int countVarUpdates(String stateVar) {
-    int varUpdates = 0;
+  // guard and update statistics of all state variables, indexed by variable
+  // ID and collected in a single pass over the commands
+  class VarStatistics {
+    // number of guards containing the variable
+    int[] guardCount;
+    // number of update elements assigning the variable
+    int[] updateCount;
+    // [stateVar][depVar]: number of guards containing both
+    CountMatrix guardCooccurrence;
+    // [stateVar][depVar]: number of update elements of stateVar reading depVar
+    CountMatrix updateDependence;
+
+    public VarStatistics(int nVars) {
+      guardCount = new int[nVars];
+      updateCount = new int[nVars];
+      guardCooccurrence = new CountMatrix(nVars);
+      updateDependence = new CountMatrix(nVars);
+    }
+  }
 
-    for (int i = 0; i < mf.getNumModules(); i++) {
-      Module m = mf.getModule(i);
-      for (int j = 0; j < m.getNumCommands(); j++) {
-        Command c = m.getCommand(j);
-        Updates us = c.getUpdates();
+  VarStatistics statistics;
 
-        for (int k = 0; k < us.getNumUpdates(); k++) {
-          Update u = us.getUpdate(k);
+  static int[] toIds(long[] set) {
+    int[] ids = new int[bitCount(set)];
+    int n = 0;
+    for (int w = 0; w < set.length; w++) {
+      for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+        ids[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+      }
+    }
+    return ids;
+  }
 
-          for (int l = 0; l < u.getNumElements(); l++) {
-            if (u.getVar(l).equals(stateVar)) {
-              varUpdates++;
+  VarStatistics getStatistics() {
+    if (statistics == null) {
+      try (Metrics.Phase p = metrics.phase("statistics")) {
+        statistics = computeStatistics();
+      }
+    }
+    return statistics;
+  }
+
+  VarStatistics computeStatistics() {
+    VarStatistics stats = new VarStatistics(vars.size());
+
+    if (mf == null) {
+      // a snapshot: the compiled commands keep the support of every guard and
+      // right-hand side
+      for (CommandInfo ci : getCommandInfos()) {
+        int[] code = ci.code;
+        int[] guardVars = irSupport(code, code[0]);
+        for (int stateVar : guardVars) {
+          stats.guardCount[stateVar]++;
+          for (int depVar : guardVars) {
+            stats.guardCooccurrence.increment(stateVar, depVar);
+          }
+        }
+        for (int k = 0; k < code[1]; k++) {
+          int uOff = code[2 + k];
+          for (int l = 0; l < code[uOff]; l++) {
+            int stateVar = code[uOff + 1 + 2 * l];
+            stats.updateCount[stateVar]++;
+            for (int depVar : irSupport(code, code[uOff + 2 + 2 * l])) {
+              stats.updateDependence.increment(stateVar, depVar);
             }
           }
         }
       }
+      return stats;
     }
-    return varUpdates;
-  }
-
-  // counts in how many updates the value of stateVar is dependent on
-  // dependencyVar
-  int computeVarUpdateDependence(String stateVar, String dependencyVar) {
-    int varUpdates = 0;
 
     for (int i = 0; i < mf.getNumModules(); i++) {
       Module m = mf.getModule(i);
       for (int j = 0; j < m.getNumCommands(); j++) {
         Command c = m.getCommand(j);
-        Updates us = c.getUpdates();
 
+        int[] guardVars = toIds(support(c.getGuard()));
+        for (int stateVar : guardVars) {
+          stats.guardCount[stateVar]++;
+          for (int depVar : guardVars) {
+            stats.guardCooccurrence.increment(stateVar, depVar);
+          }
+        }
+
+        Updates us = c.getUpdates();
         for (int k = 0; k < us.getNumUpdates(); k++) {
           Update u = us.getUpdate(k);
 
           for (int l = 0; l < u.getNumElements(); l++) {
-            if (u.getVar(l).equals(stateVar)) {
-              HashSet<String> dependencies = new HashSet<>();
-              getExpressionStateVars(u.getExpression(l), dependencies);
-              if (dependencies.contains(dependencyVar)) {
-                varUpdates++;
-              }
+            int stateVar = varId(u.getVar(l));
+            stats.updateCount[stateVar]++;
+            for (int depVar : toIds(support(u.getExpression(l)))) {
+              stats.updateDependence.increment(stateVar, depVar);
             }
           }
         }
       }
     }
-    return varUpdates;
+
+    return stats;
+  }
+
+  // compute number of guards that contains this state var
+  int computeGuardNumber(String stateVar) {
+    return getStatistics().guardCount[varId(stateVar)];
+  }
+
+  // counts in how many different updates stateVar appears this includes every
+  // summand of a probabilistic or non-deterministic choice
+  int countVarUpdates(String stateVar) {
+    return getStatistics().updateCount[varId(stateVar)];
+  }
+
+  // counts in how many updates the value of stateVar is dependent on
+  // dependencyVar
+  int computeVarUpdateDependence(String stateVar, String dependencyVar) {
+    return getStatistics().updateDependence.get(varId(stateVar), varId(dependencyVar));
   }
 
   // counts in how many guards the value of stateVar appears together with
   // dependencyVar
   int computeGuardDependence(String stateVar, String dependencyVar) {
-    int varGuards = 0;
+    return getStatistics().guardCooccurrence.get(varId(stateVar), varId(dependencyVar));
+  }
 
-    for (int i = 0; i < mf.getNumModules(); i++) {
-      Module m = mf.getModule(i);
-      for (int j = 0; j < m.getNumCommands(); j++) {
-        Command c = m.getCommand(j);
-        Expression g = c.getGuard();
+  PrismAnalyse(ModulesFile mf) {
+    this(mf, false);
+  }
 
-        HashSet<String> guardVars = new HashSet<>();
-        getExpressionStateVars(g, guardVars);
-        if (guardVars.contains(stateVar) && guardVars.contains(dependencyVar)) {
-          varGuards++;
-        }
-      }
-    }
-    return varGuards;
+  PrismAnalyse(ModulesFile mf, boolean quiet) {
+    this.mf = mf;
+    this.quiet = quiet;
+
+    vars = new SymbolTable();
+    constants = new SymbolTable();
+    stateVariables = EMPTY_SUPPORT;
+    constantSet = EMPTY_SUPPORT;
+
+    supportIndex = new IdentityHashMap<>();
+    buildSupportIndex();
+    populateShape();
   }
 
-  PrismAnalyse(ModulesFile mf) {
+  // re-analysis of an edited model: if the state variables are unchanged,
+  // commands whose text is unchanged keep the compiled weight tree and the
+  // memoized contributions of previous, and the support index is only
+  // filled for the commands that changed
+  PrismAnalyse(ModulesFile mf, PrismAnalyse previous) {
     this.mf = mf;
+    this.quiet = previous.quiet;
+    this.threads = previous.threads;
+    this.memoize = true;
+
+    vars = new SymbolTable();
+    constants = new SymbolTable();
+    stateVariables = EMPTY_SUPPORT;
+    constantSet = EMPTY_SUPPORT;
+
+    supportIndex = new IdentityHashMap<>();
+    internVars();
+    populateFormulas();
+    populateShape();
+    if (vars.names.equals(previous.vars.names)) {
+      reuseCommandInfos(previous);
+    }
+  }
 
-    stateVariables = new HashSet<>();
-    varModuleMap = new HashMap<>();
-    moduleVarListMap = new HashMap<>();
-    formulaExpressionMap = new HashMap<>();
-    modules = new HashSet<>();
-    constantSet = new HashSet<>();
+  // analysis of a model snapshot: there is no AST, the ranking and the
+  // statistics run on the compiled commands
+  PrismAnalyse(ModelSnapshot snapshot) {
+    vars = snapshot.vars;
+    constants = new SymbolTable();
+    constantSet = EMPTY_SUPPORT;
+    supportIndex = new IdentityHashMap<>();
+
+    stateVariables = new long[(vars.size() + 63) >>> 6];
+    for (int v = 0; v < vars.size(); v++) {
+      stateVariables[v >>> 6] |= 1L << v;
+    }
+    varModule = snapshot.varModule;
 
+    moduleCommands = snapshot.moduleCommands;
+    actions = snapshot.actions;
+    if (snapshot.commandCode == null) {
+      streamed = snapshot;
+      return;
+    }
+    commandAction = snapshot.commandAction;
+    commandModule = new int[commandAction.length];
+    commandInfos = new ArrayList<>(commandAction.length);
+    int c = 0;
+    for (int i = 0; i < moduleCommands.length; i++) {
+      for (int j = 0; j < moduleCommands[i]; j++, c++) {
+        commandModule[c] = i;
+        commandInfos.add(new CommandInfo(moduleCommands[i], snapshot.commandVars[c], snapshot.commandCode[c]));
+      }
+    }
   }
 
   void showDependencies() {
 
-    for (String stateVar : stateVariables) {
-      HashSet<String> dependencies = stateVarDependencies.get(stateVar);
-      HashSet<String> constants = constantDependencies.get(stateVar);
-      if (dependencies.size() == 0 && constants.size() > 0) {
-        System.out.println(stateVar + "' uses constants " + constantDependencies.get(stateVar));
-      } else if (dependencies.size() == 0 && constants.size() == 0) {
-        System.out.println(stateVar + ": WARNING: should be declared constant");
+    for (int stateVar : toIds(stateVariables)) {
+      int dependencies = bitCount(stateVarDependencies[stateVar]);
+      int[] constIds = toIds(constantDependencies[stateVar]);
+      if (dependencies == 0 && constIds.length > 0) {
+        ArrayList<String> constNames = new ArrayList<>();
+        for (int c : constIds) {
+          constNames.add(constants.name(c));
+        }
+        System.out.println(vars.name(stateVar) + "' uses constants " + constNames);
+      } else if (dependencies == 0 && constIds.length == 0) {
+        System.out.println(vars.name(stateVar) + ": WARNING: should be declared constant");
       }
     }
   }
 
   ArrayList<StateMetric> computeGuardNumbers() {
 
+    int[] guardCount = getStatistics().guardCount;
     ArrayList<StateMetric> gNumbers = new ArrayList<>();
-    for (String stateVar : stateVariables) {
-      int guardNumber = computeGuardNumber(stateVar);
-      StateMetric g = new StateMetric(stateVar, guardNumber);
+    for (int stateVar : toIds(stateVariables)) {
+      StateMetric g = new StateMetric(vars.name(stateVar), guardCount[stateVar]);
       gNumbers.add(g);
     }
 
@@ -346,88 +748,72 @@ public class PrismAnalyse {
 
   ArrayList<StateMetric> computeVarUpdates() {
 
+    int[] updateCount = getStatistics().updateCount;
     ArrayList<StateMetric> uNumbers = new ArrayList<>();
-    for (String stateVar : stateVariables) {
-      int varUpdates = countVarUpdates(stateVar);
-      StateMetric u = new StateMetric(stateVar, varUpdates);
+    for (int stateVar : toIds(stateVariables)) {
+      StateMetric u = new StateMetric(vars.name(stateVar), updateCount[stateVar]);
       uNumbers.add(u);
     }
     return uNumbers;
   }
 
+  // summed over all state variables stateVar, as computeGuardDependence(stateVar, depVar)
   ArrayList<StateMetric> computeGuardDependence() {
 
+    int[] varGuards = getStatistics().guardCooccurrence.columnSums();
     ArrayList<StateMetric> guardNumbers = new ArrayList<>();
-    for (String depVar : stateVariables) {
-      int varGuards = 0;
-      for (String stateVar : stateVariables) {
-        int nVarUpdates = computeGuardDependence(stateVar, depVar);
-        varGuards += nVarUpdates;
-      }
-      StateMetric g = new StateMetric(depVar, varGuards);
+    for (int depVar : toIds(stateVariables)) {
+      StateMetric g = new StateMetric(vars.name(depVar), varGuards[depVar]);
       guardNumbers.add(g);
     }
     return guardNumbers;
   }
 
+  // summed over all state variables stateVar, as computeVarUpdateDependence(stateVar, depVar)
   ArrayList<StateMetric> computeVarUpdateDependence() {
 
+    int[] varUpdates = getStatistics().updateDependence.columnSums();
     ArrayList<StateMetric> uNumbers = new ArrayList<>();
-    for (String depVar : stateVariables) {
-      int varUpdates = 0;
-      for (String stateVar : stateVariables) {
-        int nVarUpdates = computeVarUpdateDependence(stateVar, depVar);
-        varUpdates += nVarUpdates;
-      }
-      StateMetric u = new StateMetric(depVar, varUpdates);
+    for (int depVar : toIds(stateVariables)) {
+      StateMetric u = new StateMetric(vars.name(depVar), varUpdates[depVar]);
       uNumbers.add(u);
     }
     return uNumbers;
   }
 
 
-  void calcWeights(Update u, double wFather, int nSiblings, HashSet<String> statesExcl, HashMap<Expression, Double> nodeWeightMap) {
+  void calcWeights(Update u, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    metrics.iterationNodes++;
 
     double weight = wFather/nSiblings;
     int elements = u.getNumElements();
 
     for (int i = 0; i < elements; i++) {
       String var = u.getVar(i);
-      HashSet<String> stateVars = new HashSet<>();
-      getExpressionStateVars(u.getExpression(i), stateVars);
-      for (String stateVar : statesExcl) {
-        stateVars.remove(stateVar);
-      }
-      if (!statesExcl.contains(var) && stateVars.size() > 0) {
-        ExpressionVar ev = new ExpressionVar(u.getVar(i), TypeInt.getInstance());
-        nodeWeightMap.put(ev, weight / 2);
-        calcWeights(u.getExpression(i), weight, 2, statesExcl, nodeWeightMap);
-      } else if (!statesExcl.contains(var)) {
-        ExpressionVar ev = new ExpressionVar(u.getVar(i), TypeInt.getInstance());
-        nodeWeightMap.put(ev, weight);
-      } else if (stateVars.size() > 0) {
-        calcWeights(u.getExpression(i), weight, 1, statesExcl, nodeWeightMap);
+      boolean excluded = isExcluded(var, statesExcl);
+      boolean rhsSupport = hasSupport(support(u.getExpression(i)), statesExcl);
+      if (!excluded && rhsSupport) {
+        putWeight(nodeWeights, varId(var), weight / 2);
+        calcWeights(u.getExpression(i), weight, 2, statesExcl, nodeWeights);
+      } else if (!excluded) {
+        putWeight(nodeWeights, varId(var), weight);
+      } else if (rhsSupport) {
+        calcWeights(u.getExpression(i), weight, 1, statesExcl, nodeWeights);
       }
     }
 
   }
 
-  void calcWeights(Command c, double wFather, int nSiblings, HashSet<String> statesExcl, HashMap<Expression, Double> nodeWeightMap) {
+  void calcWeights(Command c, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    metrics.iterationCommands++;
+    metrics.iterationNodes++;
 
     double weight = wFather/nSiblings;
 
     Expression guard = c.getGuard();
-    HashSet<String> stateSet = new HashSet<>();
-
-    getExpressionStateVars(guard, stateSet);
-
-    for (String stateVar : statesExcl) {
-      stateSet.remove(stateVar);
-    }
-
-    int guardSize = stateSet.size();
-
-    stateSet = new HashSet<>();
+    boolean guardSupport = hasSupport(support(guard), statesExcl);
 
     Updates us = c.getUpdates();
 
@@ -437,8 +823,7 @@ public class PrismAnalyse {
 
       boolean isEmptyUpdate = true;
       for (int j = 0; j < u.getNumElements(); j++) {
-        if (!statesExcl.contains(u.getVar(j))) {
-          stateSet.add(u.getVar(j));
+        if (!isExcluded(u.getVar(j), statesExcl)) {
           isEmptyUpdate = false;
         }
       }
@@ -449,183 +834,1195 @@ public class PrismAnalyse {
 
     //int updateChildren = stateSet.size();
 
-    if (guardSize > 0 && updateChildren > 0) {
-      calcWeights(guard, weight, 1 + updateChildren, statesExcl, nodeWeightMap);
-      calcWeights(us, weight, 1 + updateChildren, statesExcl, nodeWeightMap);
-    } else if (guardSize > 0) {
-      calcWeights(guard, weight, 1, statesExcl, nodeWeightMap);
+    if (guardSupport && updateChildren > 0) {
+      calcWeights(guard, weight, 1 + updateChildren, statesExcl, nodeWeights);
+      calcWeights(us, weight, 1 + updateChildren, statesExcl, nodeWeights);
+    } else if (guardSupport) {
+      calcWeights(guard, weight, 1, statesExcl, nodeWeights);
     } else if (updateChildren > 0) {
-      calcWeights(us, weight, updateChildren, statesExcl, nodeWeightMap);
+      calcWeights(us, weight, updateChildren, statesExcl, nodeWeights);
     }
   }
 
-  void calcWeights(Updates us, double wFather, int nSiblings, HashSet<String> statesExcl, HashMap<Expression, Double> nodeWeightMap) {
-
-    double weight = wFather/nSiblings;
-    HashSet<String> stateSet = new HashSet<>();
-
-    for (int i = 0; i < us.getNumUpdates(); i++) {
-      Update u = us.getUpdate(i);
-
-      for (int j = 0; j < u.getNumElements(); j++) {
-        stateSet.add(u.getVar(j));
-      }
-    }
+  void calcWeights(Updates us, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
 
-    for (String stateVar : statesExcl) {
-      stateSet.remove(stateVar);
-    }
+    metrics.iterationNodes++;
 
-    int children = stateSet.size();
+    double weight = wFather/nSiblings;
 
     for (int i = 0; i < us.getNumUpdates(); i++) {
       Update u = us.getUpdate(i);
 
       for (int j = 0; j < u.getNumElements(); j++) {
-        if (!statesExcl.contains(u.getVar(j))) {
-          calcWeights(u, weight, 1, statesExcl, nodeWeightMap);
+        if (!isExcluded(u.getVar(j), statesExcl)) {
+          calcWeights(u, weight, 1, statesExcl, nodeWeights);
         }
       }
     }
   }
 
   // calculate weight of nodes, excluding all stateVars in statesExcl, resulting
-  // in a mapping of stateVars to weight values
+  // in a mapping of stateVars to weight values; a variable occurring several
+  // times keeps the largest weight of its occurrences, absent variables are -1
   //
   // this is resursive, the weight of the father and the number of children is
   // specified
-  void calcWeights(Expression e, double wFather, int nSiblings, HashSet<String> statesExcl, HashMap<Expression, Double> nodeWeightMap) {
+  void calcWeights(Expression e, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+    if (weightVisitor == null) {
+      weightVisitor = new WeightVisitor();
+    }
+    weightVisitor.reset(statesExcl, nodeWeights, wFather / nSiblings);
+    weightVisitor.visit(e);
+  }
 
-    if (e instanceof ExpressionConstant) {
-      return;
+  // reused by all calcWeights(Expression ...) of a ranking pass
+  WeightVisitor weightVisitor;
+
+  // the weight of the node visited is shared among its operands with state
+  // variables not in statesExcl; a formula reference passes it on to its
+  // definition
+  class WeightVisitor extends ExpressionVisitor<Void> {
+    long[] statesExcl;
+    double[] nodeWeights;
+    double weight;
+
+    WeightVisitor() {
+      super(PrismAnalyse.this.formulas, PrismAnalyse.this.labels);
     }
 
-    double weight = wFather / nSiblings;
+    void reset(long[] statesExcl, double[] nodeWeights, double weight) {
+      this.statesExcl = statesExcl;
+      this.nodeWeights = nodeWeights;
+      this.weight = weight;
+    }
+
+    Void visit(Expression e) {
+      metrics.iterationNodes++;
+      return super.visit(e);
+    }
+
+    Void visitVar(ExpressionVar e) {
+      putWeight(nodeWeights, varId(e.getName()), weight);
+      return null;
+    }
+
+    Void visitConstant(ExpressionConstant e) {
+      return null;
+    }
 
-    HashSet<String> stateVars;
-
-    if (e instanceof ExpressionBinaryOp) {
-      stateVars = new HashSet<>();
-      getExpressionStateVars(((ExpressionBinaryOp) e).getOperand1(), stateVars);
-      for (String stateVar : statesExcl) {
-        stateVars.remove(stateVar);
-      }
-      int op1 = stateVars.size();
-      stateVars = new HashSet<>();
-      getExpressionStateVars(((ExpressionBinaryOp) e).getOperand2(), stateVars);
-      for (String stateVar : statesExcl) {
-        stateVars.remove(stateVar);
-      }
-      int op2 = stateVars.size();
-      if (op1 > 0 && op2 > 0) {
-        calcWeights(((ExpressionBinaryOp) e).getOperand1(), weight, 2, statesExcl, nodeWeightMap);
-        calcWeights(((ExpressionBinaryOp) e).getOperand2(), weight, 2, statesExcl, nodeWeightMap);
-      } else if (op1 > 0) {
-        calcWeights(((ExpressionBinaryOp) e).getOperand1(), weight, 1, statesExcl, nodeWeightMap);
-      } else if (op2 > 0) {
-        calcWeights(((ExpressionBinaryOp) e).getOperand2(), weight, 1, statesExcl, nodeWeightMap);
-      }
-    } else if (e instanceof ExpressionUnaryOp) {
-      stateVars = new HashSet<>();
-      getExpressionStateVars(((ExpressionUnaryOp) e).getOperand(), stateVars);
-      for (String stateVar : statesExcl) {
-        stateVars.remove(stateVar);
-      }
-      int op = stateVars.size();
-      if (op > 0) {
-        calcWeights(((ExpressionUnaryOp) e).getOperand(), weight, 1, statesExcl, nodeWeightMap);
-      }
-    } else if (e instanceof ExpressionVar) {
-      nodeWeightMap.put(e, weight);
-    } else if (e instanceof ExpressionFunc) {
-      ExpressionFunc eFunc = (ExpressionFunc) e;
+    Void visitLiteral(ExpressionLiteral e) {
+      return null;
+    }
 
+    Void visitOperator(Expression e, int nOperands) {
       int children = 0;
-      for (int i = 0; i < eFunc.getNumOperands(); i++) {
-        stateVars = new HashSet<>();
-        getExpressionStateVars(eFunc.getOperand(i), stateVars);
-        for (String stateVar : statesExcl) {
-          stateVars.remove(stateVar);
-        }
-        int op = stateVars.size();
-        if (op > 0) {
+      for (int i = 0; i < nOperands; i++) {
+        if (hasSupport(support(operand(e, i)), statesExcl)) {
           children++;
         }
       }
-
-      for (int i = 0; i < eFunc.getNumOperands(); i++) {
-        stateVars = new HashSet<>();
-        getExpressionStateVars(eFunc.getOperand(i), stateVars);
-        for (String stateVar : statesExcl) {
-          stateVars.remove(stateVar);
-        }
-        int op = stateVars.size();
-        if (op > 0) {
-          calcWeights(eFunc.getOperand(i), weight, children, statesExcl, nodeWeightMap);
+      double childWeight = weight / children;
+      for (int i = 0; i < nOperands; i++) {
+        Expression operand = operand(e, i);
+        if (hasSupport(support(operand), statesExcl)) {
+          weight = childWeight;
+          visit(operand);
         }
       }
-    } else {
-      System.out.println("WARNING: expression " + e.toString() + " not supported yet");
+      return null;
     }
   }
 
-  LinkedList<String> rankVariables() {
+  static void putWeight(double[] nodeWeights, int id, double weight) {
+    if (weight > nodeWeights[id]) {
+      nodeWeights[id] = weight;
+    }
+  }
 
-    LinkedList<String> varList = new LinkedList<>();
-    
-    int commands = 0;
+  // a command together with all state variables it reads or writes and its
+  // compiled weight tree
+  class CommandInfo {
+    Command command;
+    int moduleCommands;
+    int[] vars;
+    int[] code;
+    // with memoize: contributions by the excluded subset of vars (bit i set
+    // for vars[i]), only for commands with at most 64 variables
+    HashMap<Long, double[]> memo;
+
+    public CommandInfo(Command command, int moduleCommands, long[] support) {
+      this.command = command;
+      this.moduleCommands = moduleCommands;
+      this.vars = toIds(support);
+      this.code = compileCommand(command);
+    }
+
+    // a command of a snapshot, already compiled
+    public CommandInfo(int moduleCommands, int[] vars, int[] code) {
+      this.moduleCommands = moduleCommands;
+      this.vars = vars;
+      this.code = code;
+    }
+
+    // the same command in a previous analysis; the contributions also depend
+    // on the number of commands of the module
+    public CommandInfo(Command command, int moduleCommands, CommandInfo previous) {
+      this.command = command;
+      this.moduleCommands = moduleCommands;
+      this.vars = previous.vars;
+      this.code = previous.code;
+      if (moduleCommands == previous.moduleCommands) {
+        this.memo = previous.memo;
+      }
+    }
+  }
+
+  // the weight tree of a command compiled to one int array, so that the
+  // weights can be computed without the AST and the support index:
+  //
+  //   command:    guard, nUpdates, update...
+  //   update:     nElements, (var, rhs)...
+  //   expression: IR_VAR, var
+  //             | IR_OP, nSupport, supportVar..., children
+  //   children:   nChildren, child...
+  //
+  // all but the counts and variables are offsets into the array, -1 for a guard
+  // or rhs without state variables; subexpressions without state variables
+  // are left out, they never receive a weight
+  static final int IR_VAR = 0;
+  static final int IR_OP = 1;
+
+  class IRBuilder {
+    int[] code = new int[64];
+    int size;
+
+    int reserve(int n) {
+      while (size + n > code.length) {
+        code = Arrays.copyOf(code, 2 * code.length);
+      }
+      int off = size;
+      size += n;
+      return off;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(code, size);
+    }
+  }
+
+  int[] compileCommand(Command c) {
+    IRBuilder ir = new IRBuilder();
+    Updates us = c.getUpdates();
+    int off = ir.reserve(2 + us.getNumUpdates());
+    ir.code[off + 1] = us.getNumUpdates();
+    int guard = compileExpression(c.getGuard(), ir);
+    ir.code[off] = guard;
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      Update u = us.getUpdate(k);
+      int uOff = ir.reserve(1 + 2 * u.getNumElements());
+      ir.code[off + 2 + k] = uOff;
+      ir.code[uOff] = u.getNumElements();
+      for (int l = 0; l < u.getNumElements(); l++) {
+        ir.code[uOff + 1 + 2 * l] = varId(u.getVar(l));
+        int rhs = compileExpression(u.getExpression(l), ir);
+        ir.code[uOff + 2 + 2 * l] = rhs;
+      }
+    }
+    return ir.toArray();
+  }
+
+  // offset of the compiled expression, -1 if it reads no state variables;
+  // the same tree as WeightVisitor walks, a formula reference is compiled as
+  // its definition
+  int compileExpression(Expression e, IRBuilder ir) {
+    return new CompileVisitor(ir).visit(e);
+  }
+
+  class CompileVisitor extends ExpressionVisitor<Integer> {
+    IRBuilder ir;
+
+    CompileVisitor(IRBuilder ir) {
+      super(PrismAnalyse.this.formulas, PrismAnalyse.this.labels);
+      this.ir = ir;
+    }
+
+    Integer visit(Expression e) {
+      return hasSupport(support(e), EMPTY_SUPPORT) ? super.visit(e) : -1;
+    }
+
+    Integer visitVar(ExpressionVar e) {
+      int off = ir.reserve(2);
+      ir.code[off] = IR_VAR;
+      ir.code[off + 1] = varId(e.getName());
+      return off;
+    }
+
+    Integer visitConstant(ExpressionConstant e) {
+      return -1;
+    }
+
+    Integer visitLiteral(ExpressionLiteral e) {
+      return -1;
+    }
+
+    Integer visitOperator(Expression e, int nOperands) {
+      long[] s = support(e);
+      int nSupport = bitCount(s);
+      int off = ir.reserve(3 + nSupport);
+      ir.code[off] = IR_OP;
+      ir.code[off + 1] = nSupport;
+      int i = off + 2;
+      for (int w = 0; w < s.length; w++) {
+        for (long bits = s[w]; bits != 0; bits &= bits - 1) {
+          ir.code[i++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+      }
+
+      int[] children = new int[nOperands];
+      int nChildren = 0;
+      for (int j = 0; j < children.length; j++) {
+        children[j] = visit(operand(e, j));
+        if (children[j] >= 0) {
+          nChildren++;
+        }
+      }
+      int cOff = ir.reserve(1 + nChildren);
+      ir.code[off + 2 + nSupport] = cOff;
+      ir.code[cOff] = nChildren;
+      for (int child : children) {
+        if (child >= 0) {
+          ir.code[++cOff] = child;
+        }
+      }
+      return off;
+    }
+  }
+
+  // state variables read by the compiled expression at off
+  static int[] irSupport(int[] code, int off) {
+    if (off < 0) {
+      return new int[0];
+    } else if (code[off] == IR_VAR) {
+      return new int[] { code[off + 1] };
+    }
+    return Arrays.copyOfRange(code, off + 2, off + 2 + code[off + 1]);
+  }
+
+  // as hasSupport(support(e), statesExcl) for the compiled expression at off
+  static boolean irHasSupport(int[] code, int off, long[] statesExcl) {
+    if (off < 0) {
+      return false;
+    } else if (code[off] == IR_VAR) {
+      return !contains(statesExcl, code[off + 1]);
+    }
+    int n = code[off + 1];
+    for (int i = off + 2; i < off + 2 + n; i++) {
+      if (!contains(statesExcl, code[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the compiled counterparts of the calcWeights methods, dividing the
+  // weights in exactly the same order; they return the number of nodes
+  // visited
+  static int irCommandWeights(int[] code, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    double weight = wFather/nSiblings;
+
+    int children = irCommandChildren(code, statesExcl);
+    if (children > 0) {
+      return 1 + irChildrenWeights(code, weight, children, statesExcl, nodeWeights);
+    }
+    return 1;
+  }
+
+  // children of the command node: the guard if it has support and every
+  // update that is not empty
+  static int irCommandChildren(int[] code, long[] statesExcl) {
+    int children = irHasSupport(code, code[0], statesExcl) ? 1 : 0;
+    for (int k = 0; k < code[1]; k++) {
+      if (irUpdateNotEmpty(code, code[2 + k], statesExcl)) {
+        children++;
+      }
+    }
+    return children;
+  }
+
+  // weight divided among the children of the command and nSiblings - 1
+  // further nodes, which are those of the other participants of a
+  // synchronised product with -sync
+  static int irChildrenWeights(int[] code, double weight, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+    int visited = 0;
+    if (irHasSupport(code, code[0], statesExcl)) {
+      visited += irExpressionWeights(code, code[0], weight, nSiblings, statesExcl, nodeWeights);
+    }
+    for (int k = 0; k < code[1]; k++) {
+      if (irUpdateNotEmpty(code, code[2 + k], statesExcl)) {
+        visited += irUpdatesWeights(code, weight, nSiblings, statesExcl, nodeWeights);
+        break;
+      }
+    }
+    return visited;
+  }
+
+  static boolean irUpdateNotEmpty(int[] code, int uOff, long[] statesExcl) {
+    for (int l = 0; l < code[uOff]; l++) {
+      if (!contains(statesExcl, code[uOff + 1 + 2 * l])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // calcWeights(Updates ...) visits an update once per element that is not
+  // excluded, with the same weight each time; once is enough
+  static int irUpdatesWeights(int[] code, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    double weight = wFather/nSiblings;
+
+    int visited = 1;
+    for (int k = 0; k < code[1]; k++) {
+      int uOff = code[2 + k];
+      if (irUpdateNotEmpty(code, uOff, statesExcl)) {
+        visited += irUpdateWeights(code, uOff, weight, 1, statesExcl, nodeWeights);
+      }
+    }
+    return visited;
+  }
+
+  static int irUpdateWeights(int[] code, int uOff, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    double weight = wFather/nSiblings;
+
+    int visited = 1;
+    for (int l = 0; l < code[uOff]; l++) {
+      int var = code[uOff + 1 + 2 * l];
+      int rhs = code[uOff + 2 + 2 * l];
+      boolean excluded = contains(statesExcl, var);
+      boolean rhsSupport = irHasSupport(code, rhs, statesExcl);
+      if (!excluded && rhsSupport) {
+        putWeight(nodeWeights, var, weight / 2);
+        visited += irExpressionWeights(code, rhs, weight, 2, statesExcl, nodeWeights);
+      } else if (!excluded) {
+        putWeight(nodeWeights, var, weight);
+      } else if (rhsSupport) {
+        visited += irExpressionWeights(code, rhs, weight, 1, statesExcl, nodeWeights);
+      }
+    }
+    return visited;
+  }
+
+  static int irExpressionWeights(int[] code, int off, double wFather, int nSiblings, long[] statesExcl, double[] nodeWeights) {
+
+    double weight = wFather / nSiblings;
+
+    if (code[off] == IR_VAR) {
+      putWeight(nodeWeights, code[off + 1], weight);
+      return 1;
+    }
+
+    int cOff = code[off + 2 + code[off + 1]];
+    int nChildren = code[cOff];
+    int children = 0;
+    for (int i = 1; i <= nChildren; i++) {
+      if (irHasSupport(code, code[cOff + i], statesExcl)) {
+        children++;
+      }
+    }
+    int visited = 1;
+    for (int i = 1; i <= nChildren; i++) {
+      if (irHasSupport(code, code[cOff + i], statesExcl)) {
+        visited += irExpressionWeights(code, code[cOff + i], weight, children, statesExcl, nodeWeights);
+      }
+    }
+    return visited;
+  }
+
+  static int bitCount(long[] set) {
+    int n = 0;
+    for (long word : set) {
+      n += Long.bitCount(word);
+    }
+    return n;
+  }
+
+  ArrayList<CommandInfo> commandInfos;
+
+  // what the ranking needs of the model besides the compiled commands, from
+  // the AST or from a snapshot (see ModelSnapshot): the number of commands of
+  // each module and, per command of getCommandInfos(), its module and action
+  // (-1 if unsynchronised)
+  int[] moduleCommands;
+  SymbolTable actions;
+  int[] commandModule;
+  int[] commandAction;
+
+  void populateShape() {
+    moduleCommands = new int[mf.getNumModules()];
+    actions = new SymbolTable();
+    ArrayList<Integer> modules = new ArrayList<>();
+    ArrayList<Integer> synchs = new ArrayList<>();
     for (int i = 0; i < mf.getNumModules(); i++) {
       Module m = mf.getModule(i);
-      commands += m.getNumCommands();
+      moduleCommands[i] = m.getNumCommands();
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        String action = m.getCommand(j).getSynch();
+        modules.add(i);
+        synchs.add(action.equals("") ? -1 : actions.id(action));
+      }
+    }
+    commandModule = new int[modules.size()];
+    commandAction = new int[modules.size()];
+    for (int c = 0; c < commandModule.length; c++) {
+      commandModule[c] = modules.get(c);
+      commandAction[c] = synchs.get(c);
     }
+  }
+
+  ArrayList<CommandInfo> getCommandInfos() {
+    if (commandInfos == null) {
+      try (Metrics.Phase p = metrics.phase("compile")) {
+        commandInfos = new ArrayList<>();
+        for (int i = 0; i < mf.getNumModules(); i++) {
+          Module m = mf.getModule(i);
+          for (int j = 0; j < m.getNumCommands(); j++) {
+            commandInfos.add(commandInfo(m.getCommand(j), m.getNumCommands()));
+          }
+        }
+      }
+    }
+    return commandInfos;
+  }
+
+  CommandInfo commandInfo(Command c, int moduleCommands) {
+    long[] s = support(c.getGuard());
+    Updates us = c.getUpdates();
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      Update u = us.getUpdate(k);
+      for (int l = 0; l < u.getNumElements(); l++) {
+        s = union(addVar(s, varId(u.getVar(l))), support(u.getExpression(l)));
+      }
+    }
+    return new CommandInfo(c, moduleCommands, s);
+  }
+
+  // number of commands taken over from the previous analysis
+  int reusedCommands;
+
+  // commands are matched by module name, text and the formulas they use
+  // (see commandKey), duplicates in order
+  void reuseCommandInfos(PrismAnalyse previous) {
+    HashMap<String, LinkedList<CommandInfo>> unchanged = new HashMap<>();
+    ArrayList<CommandInfo> previousInfos = previous.getCommandInfos();
+    int p = 0;
+    for (int i = 0; i < previous.mf.getNumModules(); i++) {
+      Module m = previous.mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        unchanged.computeIfAbsent(previous.commandKey(m, m.getCommand(j)), k -> new LinkedList<>()).add(previousInfos.get(p++));
+      }
+    }
+
+    commandInfos = new ArrayList<>();
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        LinkedList<CommandInfo> matches = unchanged.get(commandKey(m, c));
+        if (matches != null && !matches.isEmpty()) {
+          commandInfos.add(new CommandInfo(c, m.getNumCommands(), matches.removeFirst()));
+          reusedCommands++;
+        } else {
+          commandInfos.add(commandInfo(c, m.getNumCommands()));
+        }
+      }
+    }
+  }
+
+  // a formula reference prints as its name, but the weight tree and support
+  // of a command inline the definition, so the definitions of the formulas
+  // the command refers to, directly or through other formulas, are part of
+  // its key
+  String commandKey(Module m, Command c) {
+    FormulaCollector collector = new FormulaCollector();
+    try {
+      c.accept(collector);
+    } catch (PrismLangException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder key = new StringBuilder(m.getName()).append('\u0000').append(c);
+    for (String name : collector.names) {
+      key.append('\u0000').append(name).append('=').append(formulas.get(name));
+    }
+    return key.toString();
+  }
+
+  // names of the formulas referenced below an element, in sorted order
+  class FormulaCollector extends ASTTraverse {
+    TreeSet<String> names = new TreeSet<>();
+
+    public void visitPost(ExpressionFormula e) throws PrismLangException {
+      Expression definition = formulas.get(e.getName());
+      if (names.add(e.getName()) && definition != null) {
+        definition.accept(this);
+      }
+    }
+  }
+
+  // indexed binary max-heap over variable IDs, ties go to the larger ID just
+  // as the scan over all IDs in rankVariablesReference()
+  class WeightHeap {
+    int[] heap;
+    int[] pos;
+    double[] weight;
+    int size;
+
+    public WeightHeap(int vars) {
+      heap = new int[vars];
+      pos = new int[vars];
+      weight = new double[vars];
+      Arrays.fill(pos, -1);
+    }
+
+    boolean above(int id1, int id2) {
+      return weight[id1] > weight[id2] || (weight[id1] == weight[id2] && id1 > id2);
+    }
+
+    void set(int id, double w) {
+      weight[id] = w;
+      if (pos[id] < 0) {
+        pos[id] = size;
+        heap[size++] = id;
+      }
+      siftDown(siftUp(pos[id]));
+    }
+
+    void remove(int id) {
+      int i = pos[id];
+      if (i < 0) {
+        return;
+      }
+      pos[id] = -1;
+      int last = heap[--size];
+      if (i < size) {
+        heap[i] = last;
+        pos[last] = i;
+        siftDown(siftUp(i));
+      }
+    }
+
+    int pop() {
+      int id = heap[0];
+      remove(id);
+      return id;
+    }
+
+    int siftUp(int i) {
+      int id = heap[i];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!above(id, heap[parent])) {
+          break;
+        }
+        heap[i] = heap[parent];
+        pos[heap[i]] = i;
+        i = parent;
+      }
+      heap[i] = id;
+      pos[id] = i;
+      return i;
+    }
+
+    void siftDown(int i) {
+      int id = heap[i];
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && above(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if (!above(heap[child], id)) {
+          break;
+        }
+        heap[i] = heap[child];
+        pos[heap[i]] = i;
+        i = child;
+      }
+      heap[i] = id;
+      pos[id] = i;
+    }
+  }
+
+  enum RankingMode { REFERENCE, INCREMENTAL, PARALLEL, COMPONENTS }
+
+  RankingMode rankingMode = RankingMode.INCREMENTAL;
+  int threads = Runtime.getRuntime().availableProcessors();
+  // with a budget, the ranking is approximated from sampled commands and
+  // refined for at most that many milliseconds, see ApproximateRanking
+  long approxMillis;
+  // a snapshot read without its commands, which are streamed from the file
+  // through a buffer of streamBytes, see StreamingRanking
+  ModelSnapshot streamed;
+  int streamBytes = 1 << 20;
+
+  // weights of the variables returned by the last rankVariables() call
+  ArrayList<Double> rankWeights = new ArrayList<>();
+
+  // phases and ranking iterations of this analysis
+  Metrics metrics = new Metrics();
+
+  // with sync, commands with the same action in different modules are
+  // weighted as their synchronous product, which is what Prism builds: each
+  // action is a root like a module, a product of one command per
+  // participating module gets 1 / (product of their numbers of commands with
+  // the action), and the guards and updates of all participants are
+  // siblings; the unsynchronised commands of a module share its root
+  //
+  // the products are not enumerated: the largest weight a child of command
+  // c receives in any product is that of the product with the fewest
+  // children, so c's children are divided as if each other participating
+  // module contributed its command with the fewest children
+  boolean sync;
+  // per command of getCommandInfos(): weight of the command or of each of
+  // its products and number of children under the current exclusion
+  double[] commandWeight;
+  int[] commandChildren;
+  // per action: its commands and the modules having it; per action and
+  // module (a * modules + m) the fewest children of the commands, and per
+  // action their sum over the modules
+  int[][] actionCommands;
+  int[][] actionModules;
+  int[] actionMinChildren;
+  int[] actionTotalChildren;
+
+  void prepareSync() {
+    ArrayList<CommandInfo> cInfos = getCommandInfos();
+    int nCommands = cInfos.size();
+    int nModules = moduleCommands.length;
+    commandWeight = new double[nCommands];
+    commandChildren = new int[nCommands];
+
+    int[] unsynchronised = new int[nModules];
+    int c;
+    for (c = 0; c < nCommands; c++) {
+      if (commandAction[c] < 0) {
+        unsynchronised[commandModule[c]]++;
+      }
+    }
+
+    int nActions = actions.size();
+    int[] counts = new int[nActions * nModules];
+    int[] actionCount = new int[nActions];
+    for (c = 0; c < nCommands; c++) {
+      if (commandAction[c] >= 0) {
+        counts[commandAction[c] * nModules + commandModule[c]]++;
+        actionCount[commandAction[c]]++;
+      }
+    }
+    actionCommands = new int[nActions][];
+    actionModules = new int[nActions][];
+    double[] products = new double[nActions];
+    for (int a = 0; a < nActions; a++) {
+      actionCommands[a] = new int[actionCount[a]];
+      actionCount[a] = 0;
+      int participants = 0;
+      products[a] = 1;
+      for (int i = 0; i < nModules; i++) {
+        if (counts[a * nModules + i] > 0) {
+          participants++;
+          products[a] *= counts[a * nModules + i];
+        }
+      }
+      actionModules[a] = new int[participants];
+      participants = 0;
+      for (int i = 0; i < nModules; i++) {
+        if (counts[a * nModules + i] > 0) {
+          actionModules[a][participants++] = i;
+        }
+      }
+    }
+    for (c = 0; c < nCommands; c++) {
+      int a = commandAction[c];
+      if (a >= 0) {
+        actionCommands[a][actionCount[a]++] = c;
+        commandWeight[c] = 1 / products[a];
+      } else {
+        commandWeight[c] = 1.0 / unsynchronised[commandModule[c]];
+      }
+    }
+    actionMinChildren = new int[nActions * nModules];
+    actionTotalChildren = new int[nActions];
+  }
+
+  void updateChildren(int c, long[] statesExcl) {
+    commandChildren[c] = irCommandChildren(commandInfos.get(c).code, statesExcl);
+  }
+
+  void updateAction(int a) {
+    int nModules = moduleCommands.length;
+    for (int i : actionModules[a]) {
+      actionMinChildren[a * nModules + i] = Integer.MAX_VALUE;
+    }
+    for (int c : actionCommands[a]) {
+      int k = a * nModules + commandModule[c];
+      actionMinChildren[k] = Math.min(actionMinChildren[k], commandChildren[c]);
+    }
+    actionTotalChildren[a] = 0;
+    for (int i : actionModules[a]) {
+      actionTotalChildren[a] += actionMinChildren[a * nModules + i];
+    }
+  }
+
+  void updateSync(long[] statesExcl) {
+    for (int c = 0; c < commandChildren.length; c++) {
+      updateChildren(c, statesExcl);
+    }
+    for (int a = 0; a < actionCommands.length; a++) {
+      updateAction(a);
+    }
+  }
+
+  // weights of command c, by module or, with sync, by product; returns the
+  // number of nodes visited
+  int commandWeights(int c, long[] statesExcl, double[] nodeWeights) {
+    CommandInfo ci = commandInfos.get(c);
+    if (!sync) {
+      return irCommandWeights(ci.code, 1, ci.moduleCommands, statesExcl, nodeWeights);
+    }
+    if (commandChildren[c] == 0) {
+      return 1;
+    }
+    int siblings = commandChildren[c];
+    int a = commandAction[c];
+    if (a >= 0) {
+      siblings += actionTotalChildren[a] - actionMinChildren[a * moduleCommands.length + commandModule[c]];
+    }
+    return 1 + irChildrenWeights(ci.code, commandWeight[c], siblings, statesExcl, nodeWeights);
+  }
+
+  // weighted is the number of variables that had a weight when stateVar was
+  // picked
+  void pickVariable(LinkedList<String> varList, int stateVar, double weight, int weighted) {
+    metrics.endIteration(vars.name(stateVar), weight, weighted);
+    if (!quiet) {
+      System.out.println("// variable " + vars.name(stateVar) + " with value " + weight);
+    }
+    varList.add(vars.name(stateVar));
+    rankWeights.add(weight);
+  }
+
+  LinkedList<String> rankVariables() {
+    rankWeights.clear();
+    try (Metrics.Phase p = metrics.phase("rank")) {
+      metrics.supportNodes = supportIndex.size();
+      metrics.weightSlots = vars.size();
+      metrics.startIteration();
+      if (streamed != null) {
+        try {
+          return new StreamingRanking(this, streamed, streamBytes).rank();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      if (sync) {
+        prepareSync();
+      }
+      if (approxMillis > 0) {
+        return new ApproximateRanking(this, approxMillis).rank();
+      } else if (rankingMode == RankingMode.REFERENCE) {
+        return rankVariablesReference();
+      } else if (rankingMode == RankingMode.PARALLEL) {
+        return rankVariablesParallel();
+      } else if (rankingMode == RankingMode.COMPONENTS) {
+        return new ComponentRanking(this).rank();
+      }
+      return rankVariablesIncremental();
+    }
+  }
+
+  static int weightedVariables(double[] nodeWeights) {
+    int n = 0;
+    for (double w : nodeWeights) {
+      if (w >= 0) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  // variable with the largest weight, ties go to the larger ID; -1 if no
+  // variable has a weight
+  static int selectMaxWeight(double[] nodeWeights) {
+    double max = 0;
+    int maxStateVar = -1;
+
+    for (int id = 0; id < nodeWeights.length; id++) {
+      if (nodeWeights[id] >= 0 && nodeWeights[id] >= max) {
+        max = nodeWeights[id];
+        maxStateVar = id;
+      }
+    }
+    return maxStateVar;
+  }
 
-    HashSet<String> statesExcl = new HashSet<>();
+  // the original greedy loop: recomputes the weights of all commands for
+  // every variable picked
+  LinkedList<String> rankVariablesReference() {
+
+    LinkedList<String> varList = new LinkedList<>();
+
+    long[] statesExcl = new long[(vars.size() + 63) >>> 6];
+    double[] nodeWeights = new double[vars.size()];
+    weightVisitor = new WeightVisitor();
 
     while(true) {
 
-      HashMap<Expression, Double> nodeWeightMap = new HashMap<>();
+      Arrays.fill(nodeWeights, -1);
 
-      for (int i = 0; i < mf.getNumModules(); i++) {
-        Module m = mf.getModule(i);
+      if (sync || mf == null) {
+        // there is no AST counterpart of the product weights, and a snapshot
+        // has no AST at all
+        if (sync) {
+          updateSync(statesExcl);
+        }
+        getCommandInfos();
+        for (int c = 0; c < commandInfos.size(); c++) {
+          metrics.iterationCommands++;
+          metrics.iterationNodes += commandWeights(c, statesExcl, nodeWeights);
+        }
+      } else {
+        for (int i = 0; i < mf.getNumModules(); i++) {
+          Module m = mf.getModule(i);
 
-        for (int j = 0; j < m.getNumCommands(); j++) {
-          calcWeights(m.getCommand(j), 1, m.getNumCommands(), statesExcl, nodeWeightMap);
+          for (int j = 0; j < m.getNumCommands(); j++) {
+            calcWeights(m.getCommand(j), 1, m.getNumCommands(), statesExcl, nodeWeights);
+          }
         }
       }
 
-      if (nodeWeightMap.size() == 0) {
+      int maxStateVar = selectMaxWeight(nodeWeights);
+
+      if (maxStateVar < 0) {
         break;
       }
 
-      double max = 0;
-      String maxStateVar = null;
+      statesExcl = addVar(statesExcl, maxStateVar);
+      pickVariable(varList, maxStateVar, nodeWeights[maxStateVar], weightedVariables(nodeWeights));
+    }
+
+    return varList;
+  }
+
+  // modules with more commands than this are split into several tasks
+  static final int PARALLEL_CHUNK_COMMANDS = 256;
+
+  // computes the weights of the commands [from, to) of getCommandInfos() into
+  // the weight array of the executing worker thread, adding the number of
+  // nodes visited to visited
+  class CommandWeightTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int from;
+    int to;
+    long[] statesExcl;
+    ThreadLocal<double[]> workerWeights;
+    LongAdder visited;
+
+    public CommandWeightTask(int from, int to, long[] statesExcl, ThreadLocal<double[]> workerWeights, LongAdder visited) {
+      this.from = from;
+      this.to = to;
+      this.statesExcl = statesExcl;
+      this.workerWeights = workerWeights;
+      this.visited = visited;
+    }
+
+    protected void compute() {
+      if (to - from > PARALLEL_CHUNK_COMMANDS) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new CommandWeightTask(from, mid, statesExcl, workerWeights, visited),
+                  new CommandWeightTask(mid, to, statesExcl, workerWeights, visited));
+        return;
+      }
+      double[] nodeWeights = workerWeights.get();
+      long nodes = 0;
+      for (int c = from; c < to; c++) {
+        nodes += commandWeights(c, statesExcl, nodeWeights);
+      }
+      visited.add(nodes);
+    }
+  }
+
+  // one CommandWeightTask per module
+  class ModuleWeightTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    long[] statesExcl;
+    ThreadLocal<double[]> workerWeights;
+    LongAdder visited;
+
+    public ModuleWeightTask(long[] statesExcl, ThreadLocal<double[]> workerWeights, LongAdder visited) {
+      this.statesExcl = statesExcl;
+      this.workerWeights = workerWeights;
+      this.visited = visited;
+    }
+
+    protected void compute() {
+      ArrayList<CommandWeightTask> tasks = new ArrayList<>();
+      int from = 0;
+      for (int i = 0; i < moduleCommands.length; i++) {
+        int to = from + moduleCommands[i];
+        tasks.add(new CommandWeightTask(from, to, statesExcl, workerWeights, visited));
+        from = to;
+      }
+      invokeAll(tasks);
+    }
+  }
+
+  // same loop as rankVariablesReference(), with the commands split into
+  // fork/join tasks; every worker collects weights in its own array and the
+  // arrays are merged by taking the maximum, which does not depend on the
+  // merge order, so the result is the same for any number of threads
+  LinkedList<String> rankVariablesParallel() {
+
+    LinkedList<String> varList = new LinkedList<>();
+
+    final int nVars = vars.size();
+    getCommandInfos();
+
+    final ConcurrentLinkedQueue<double[]> allWorkerWeights = new ConcurrentLinkedQueue<>();
+    ThreadLocal<double[]> workerWeights = ThreadLocal.withInitial(() -> {
+      double[] w = new double[nVars];
+      Arrays.fill(w, -1);
+      allWorkerWeights.add(w);
+      return w;
+    });
+
+    long[] statesExcl = new long[(nVars + 63) >>> 6];
+    double[] nodeWeights = new double[nVars];
 
-      for (Expression key : nodeWeightMap.keySet()) {
-        if (key instanceof ExpressionVar) {
-          double keyVal = nodeWeightMap.get(key);
-          if (keyVal >= max) {
-            max = keyVal;
-            maxStateVar = ((ExpressionVar) key).getName();
+    LongAdder visited = new LongAdder();
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      while(true) {
+
+        if (sync) {
+          updateSync(statesExcl);
+        }
+        pool.invoke(new ModuleWeightTask(statesExcl, workerWeights, visited));
+        metrics.iterationCommands += commandInfos.size();
+        metrics.iterationNodes += visited.sumThenReset();
+
+        Arrays.fill(nodeWeights, -1);
+        for (double[] w : allWorkerWeights) {
+          for (int id = 0; id < nVars; id++) {
+            putWeight(nodeWeights, id, w[id]);
           }
+          Arrays.fill(w, -1);
+        }
+
+        int maxStateVar = selectMaxWeight(nodeWeights);
+
+        if (maxStateVar < 0) {
+          break;
         }
+
+        statesExcl = addVar(statesExcl, maxStateVar);
+        pickVariable(varList, maxStateVar, nodeWeights[maxStateVar], weightedVariables(nodeWeights));
       }
+    } finally {
+      pool.shutdown();
+    }
 
-      String mStateVar = new String(maxStateVar);
-      
-      statesExcl.add(maxStateVar);
-      //System.out.println("size: " + nodeWeightMap.size() + "\n" + nodeWeightMap);
-      System.out.println("// variable " + mStateVar + " with value " + max);
-      varList.push(mStateVar);
-      //System.out.println(varList);
+    return varList;
+  }
+
+  // keeps the contributions of each command for later analyses of the same
+  // (edited) model, see PrismWatch
+  boolean memoize;
+  static final int MEMO_LIMIT = 256;
+
+  // recomputes the weight contribution of command c of getCommandInfos()
+  // under statesExcl into contrib, parallel to its vars; scratch is -1
+  // everywhere and left that way
+  //
+  // with sync the contribution also depends on the other commands of the
+  // action, it is not memoized
+  void calcContribution(int c, long[] statesExcl, double[] scratch, double[] contrib) {
+    CommandInfo ci = commandInfos.get(c);
+    boolean memo = memoize && !sync && ci.vars.length <= 64;
+    long mask = 0;
+    if (memo) {
+      for (int i = 0; i < ci.vars.length; i++) {
+        if (contains(statesExcl, ci.vars[i])) {
+          mask |= 1L << i;
+        }
+      }
+      if (ci.memo == null || ci.memo.size() >= MEMO_LIMIT) {
+        ci.memo = new HashMap<>();
+      }
+      double[] cached = ci.memo.get(mask);
+      if (cached != null) {
+        System.arraycopy(cached, 0, contrib, 0, contrib.length);
+        return;
+      }
+    }
+
+    metrics.iterationCommands++;
+    metrics.iterationNodes += commandWeights(c, statesExcl, scratch);
+    for (int i = 0; i < ci.vars.length; i++) {
+      contrib[i] = scratch[ci.vars[i]];
+      scratch[ci.vars[i]] = -1;
     }
 
-    LinkedList<String> resultList = new LinkedList<>();
-    for (String varName : varList) {
-      //System.out.println(varName);
-      resultList.push(varName);
+    if (memo) {
+      ci.memo.put(mask, contrib.clone());
     }
+  }
+
+  // same greedy order as rankVariablesReference(), but the weight of a
+  // variable is kept in a heap as the maximum over the commands containing
+  // it, and only the commands containing the picked variable are recomputed
+  LinkedList<String> rankVariablesIncremental() {
+
+    LinkedList<String> varList = new LinkedList<>();
+
+    int nVars = vars.size();
+    ArrayList<CommandInfo> cInfos = getCommandInfos();
+    int nCommands = cInfos.size();
+    int[][] varCommands = varCommands();
+
+    long[] statesExcl = new long[(nVars + 63) >>> 6];
+    double[] scratch = new double[nVars];
+    Arrays.fill(scratch, -1);
+
+    if (sync) {
+      updateSync(statesExcl);
+    }
+
+    double[][] contribs = new double[nCommands][];
+    for (int c = 0; c < nCommands; c++) {
+      contribs[c] = new double[cInfos.get(c).vars.length];
+      calcContribution(c, statesExcl, scratch, contribs[c]);
+    }
+
+    WeightHeap heap = new WeightHeap(nVars);
+    for (int var = 0; var < nVars; var++) {
+      double w = varWeight(var, varCommands[var], cInfos, contribs);
+      if (w >= 0) {
+        heap.set(var, w);
+      }
+    }
+
+    int[] touched = new int[nVars];
+    boolean[] isTouched = new boolean[nVars];
+    // commands to recompute after a pick and, with sync, the actions whose
+    // fewest children may have changed
+    int[] queued = new int[nCommands];
+    boolean[] isQueued = new boolean[nCommands];
+    int nActions = sync ? actionCommands.length : 0;
+    int[] changedActions = new int[nActions];
+    boolean[] isChanged = new boolean[nActions];
+
+    while (heap.size > 0) {
+
+      double max = heap.weight[heap.heap[0]];
+      int weighted = heap.size;
+      int maxStateVar = heap.pop();
+
+      statesExcl = addVar(statesExcl, maxStateVar);
+      pickVariable(varList, maxStateVar, max, weighted);
+
+      int nQueued = 0;
+      int nChanged = 0;
+      for (int c : varCommands[maxStateVar]) {
+        isQueued[c] = true;
+        queued[nQueued++] = c;
+        if (sync) {
+          updateChildren(c, statesExcl);
+          int a = commandAction[c];
+          if (a >= 0 && !isChanged[a]) {
+            isChanged[a] = true;
+            changedActions[nChanged++] = a;
+          }
+        }
+      }
+      for (int i = 0; i < nChanged; i++) {
+        int a = changedActions[i];
+        isChanged[a] = false;
+        updateAction(a);
+        for (int c : actionCommands[a]) {
+          if (!isQueued[c]) {
+            isQueued[c] = true;
+            queued[nQueued++] = c;
+          }
+        }
+      }
+
+      int nTouched = 0;
+      for (int q = 0; q < nQueued; q++) {
+        int c = queued[q];
+        isQueued[c] = false;
+        CommandInfo ci = cInfos.get(c);
+        calcContribution(c, statesExcl, scratch, contribs[c]);
+        for (int var : ci.vars) {
+          if (!isTouched[var] && !contains(statesExcl, var)) {
+            isTouched[var] = true;
+            touched[nTouched++] = var;
+          }
+        }
+      }
+
+      for (int i = 0; i < nTouched; i++) {
+        int var = touched[i];
+        isTouched[var] = false;
+        double w = varWeight(var, varCommands[var], cInfos, contribs);
+        if (w >= 0) {
+          heap.set(var, w);
+        } else {
+          heap.remove(var);
+        }
+      }
+    }
+
+    return varList;
+  }
+
+  // commands of getCommandInfos() containing each variable
+  int[][] varCommands() {
+    int nVars = vars.size();
+    ArrayList<CommandInfo> cInfos = getCommandInfos();
+    int[] varCommandCount = new int[nVars];
+    for (CommandInfo ci : cInfos) {
+      for (int var : ci.vars) {
+        varCommandCount[var]++;
+      }
+    }
+    int[][] varCommands = new int[nVars][];
+    for (int var = 0; var < nVars; var++) {
+      varCommands[var] = new int[varCommandCount[var]];
+      varCommandCount[var] = 0;
+    }
+    for (int c = 0; c < cInfos.size(); c++) {
+      for (int var : cInfos.get(c).vars) {
+        varCommands[var][varCommandCount[var]++] = c;
+      }
+    }
+    return varCommands;
+  }
 
-    return resultList;
+  double varWeight(int var, int[] commands, ArrayList<CommandInfo> cInfos, double[][] contribs) {
+    double w = -1;
+    for (int c : commands) {
+      int i = Arrays.binarySearch(cInfos.get(c).vars, var);
+      if (contribs[c][i] > w) {
+        w = contribs[c][i];
+      }
+    }
+    return w;
   }
 
   void makeVarGlobal(ModulesFile mf, String varName) {
@@ -647,28 +2044,456 @@ public class PrismAnalyse {
     }
   }
 
-  public static void main(String[] args) {
+  // variable order Prism uses after makeVarGlobal was applied for each of
+  // the ranked variables: the original globals, the ranked variables, then
+  // the remaining module variables in declaration order
+  List<String> effectiveOrder(List<String> ranked) {
+    ArrayList<String> order = new ArrayList<>();
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      order.add(mf.getGlobal(i).getName());
+    }
+    for (String varName : ranked) {
+      if (!order.contains(varName)) {
+        order.add(varName);
+      }
+    }
+    for (String varName : vars.names) {
+      if (!order.contains(varName)) {
+        order.add(varName);
+      }
+    }
+    return order;
+  }
 
-    PrismAnalyse bddOpt;
+  static final int FORCE_ITERATIONS = 100;
+  static final int SPECTRAL_ITERATIONS = 10000;
+
+  // ranked variables of the given ordering: "weight" is rankVariables(),
+  // "force" and "spectral" are computed on the interaction hypergraph,
+  // starting from the declaration order, "portfolio" is the best of several
+  // cheap orderings (see OrderPortfolio); the total span is printed for each
+  LinkedList<String> graphOrder(String ordering) throws Exception {
+    if (ordering.equals("portfolio")) {
+      return new OrderPortfolio(this, threads).select();
+    }
+    if (ordering.equals("weight")) {
+      LinkedList<String> varList = rankVariables();
+      if (!quiet) {
+        System.out.println("// order weight: span " + new InteractionGraph(this).span(effectiveOrder(varList)));
+      }
+      return varList;
+    }
+
+    InteractionGraph graph = new InteractionGraph(this);
+    int nGlobals = mf.getNumGlobals();
+    int[] declared = graph.toIds(effectiveOrder(new LinkedList<String>()));
+    int[] order;
+    if (ordering.equals("force")) {
+      order = graph.forceOrder(declared, nGlobals, FORCE_ITERATIONS);
+    } else if (ordering.equals("spectral")) {
+      order = graph.spectralOrder(declared, nGlobals, SPECTRAL_ITERATIONS);
+    } else {
+      throw new IllegalArgumentException("unknown ordering " + ordering);
+    }
+    if (!quiet) {
+      System.out.println("// order " + ordering + ": span " + graph.span(order)
+                         + " (declaration order: " + graph.span(declared) + ")");
+    }
+    List<String> names = graph.toNames(order);
+    return new LinkedList<>(names.subList(nGlobals, names.size()));
+  }
 
+  ResultCache.Entry cacheEntry(List<String> ranked, String output) {
+    ResultCache.Entry entry = new ResultCache.Entry();
+    entry.ordering.addAll(ranked);
+    entry.weights.addAll(rankWeights);
+    VarStatistics stats = getStatistics();
+    int[] guardDependence = stats.guardCooccurrence.columnSums();
+    int[] updateDependence = stats.updateDependence.columnSums();
+    for (int v = 0; v < vars.size(); v++) {
+      entry.statVars.add(vars.name(v));
+      entry.stats.add(new int[] { stats.guardCount[v], stats.updateCount[v], guardDependence[v], updateDependence[v] });
+    }
+    entry.output = output;
+    return entry;
+  }
+
+  // node count as text, or why the relation could not be built
+  String transitionNodes(List<String> order) throws Exception {
     try {
-      PrismParser p = new PrismParser();
-      FileInputStream fis = new FileInputStream(args[0]);
-      ModulesFile mf = p.parseModulesFile(fis);
+      return String.valueOf(TransitionBdd.nodeCount(this, order));
+    } catch (IllegalStateException e) {
+      return "not available (" + e.getMessage() + ")";
+    }
+  }
 
-      mf.tidyUp();
-      bddOpt = new PrismAnalyse(mf);
+  // removes the variables outside the cone of influence of the properties of
+  // pf from the model; the analysis has to be rebuilt afterwards
+  void reduceToProperties(PropertiesFile pf) throws PrismLangException {
+    RangeAnalysis ranges = null;
+    try {
+      ranges = new RangeAnalysis(this, threads);
+    } catch (IllegalStateException e) {
+      // the bounds use undefined constants, the bits saved are not reported
+    }
+    ConeOfInfluence cone = new ConeOfInfluence(this);
+    cone.reduce(pf);
+    cone.report(ranges);
+  }
 
-      LinkedList<String> varList = bddOpt.rankVariables();
-      
-      for (String varName : varList) {
-        bddOpt.makeVarGlobal(mf, varName);
+  // prints the reachable ranges of the variables, and rewrites the
+  // declarations to them if tighten is set
+  void showRanges(boolean tighten) {
+    try {
+      RangeAnalysis ranges = new RangeAnalysis(this, threads);
+      ranges.run();
+      ranges.report();
+      if (tighten) {
+        ranges.tighten();
       }
+    } catch (IllegalStateException e) {
+      System.out.println("// ranges: not available (" + e.getMessage() + ")");
+    }
+  }
+
+  // streams the model followed by a newline, as println(mf.toString()) did
+  static void writeModel(ModulesFile mf, Writer out, boolean compact) throws IOException {
+    new ModelWriter(out, compact).write(mf);
+    out.write("\n");
+    out.flush();
+  }
+
+  // to file, or to stdout if file is null
+  static void writeModel(ModulesFile mf, String file, boolean compact) throws IOException {
+    if (file == null) {
+      writeModel(mf, new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16), compact);
+      return;
+    }
+    try (Writer out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+      writeModel(mf, out, compact);
+    }
+  }
+
+  // the summary goes to stderr, stdout is the model
+  static void printMetrics(Metrics metrics, String format) {
+    if (format == null) {
+      return;
+    }
+    if (format.equals("json")) {
+      System.err.println(metrics.toJson());
+    } else if (format.equals("text")) {
+      System.err.print(metrics.toText());
+    } else {
+      throw new IllegalArgumentException("unknown metrics format " + format);
+    }
+  }
 
-      System.out.println(mf.toString());
+  static final String USAGE = "usage: PrismAnalyse [options] model, see README.md for the options";
 
+  public static void main(String[] args) {
+    try {
+      run(args, Paths.get(""), null);
     } catch(Exception e) {
       System.out.println("exception " + e);
     }
   }
+
+  // one run as on the command line; relative paths are resolved against
+  // dir, and text is the model if it is not read from the model file (the
+  // server passes the model text of a request this way)
+  static void run(String[] args, Path dir, byte[] text) throws Exception {
+
+    PrismAnalyse bddOpt;
+
+    RankingMode rankingMode = RankingMode.INCREMENTAL;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String modelFile = null;
+    String batchSource = null;
+    String buildOrderings = null;
+    boolean bddSize = false;
+    long searchMillis = 0;
+    long approxMillis = 0;
+    int streamKilobytes = 0;
+    String ordering = null;
+    String cacheDir = null;
+    boolean watch = false;
+    String outFile = null;
+    boolean compact = false;
+    long cacheMegabytes = 256;
+    boolean sync = false;
+    String metricsFormat = null;
+    String socket = null;
+    String exportFile = null;
+    String importFile = null;
+    boolean serve = false;
+    boolean ranges = false;
+    String propsFile = null;
+    boolean tighten = false;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-ranking") && i + 1 < args.length) {
+        rankingMode = RankingMode.valueOf(args[++i].toUpperCase());
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-batch") && i + 1 < args.length) {
+        batchSource = args[++i];
+      } else if (args[i].equals("-build") && i + 1 < args.length) {
+        buildOrderings = args[++i];
+      } else if (args[i].equals("-order") && i + 1 < args.length) {
+        ordering = args[++i];
+      } else if (args[i].equals("-search") && i + 1 < args.length) {
+        searchMillis = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-approx") && i + 1 < args.length) {
+        approxMillis = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-stream") && i + 1 < args.length) {
+        streamKilobytes = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-cache") && i + 1 < args.length) {
+        cacheDir = args[++i];
+      } else if (args[i].equals("-cachesize") && i + 1 < args.length) {
+        cacheMegabytes = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-metrics") && i + 1 < args.length) {
+        metricsFormat = args[++i];
+      } else if (args[i].equals("-o") && i + 1 < args.length) {
+        outFile = args[++i];
+      } else if (args[i].equals("-compact")) {
+        compact = true;
+      } else if (args[i].equals("-export") && i + 1 < args.length) {
+        exportFile = args[++i];
+      } else if (args[i].equals("-import") && i + 1 < args.length) {
+        importFile = args[++i];
+      } else if (args[i].equals("-serve")) {
+        serve = true;
+      } else if (args[i].equals("-socket") && i + 1 < args.length) {
+        socket = args[++i];
+      } else if (args[i].equals("-watch")) {
+        watch = true;
+      } else if (args[i].equals("-props") && i + 1 < args.length) {
+        propsFile = args[++i];
+      } else if (args[i].equals("-sync")) {
+        sync = true;
+      } else if (args[i].equals("-ranges")) {
+        ranges = true;
+      } else if (args[i].equals("-tighten")) {
+        tighten = true;
+      } else if (args[i].equals("-bddsize")) {
+        bddSize = true;
+      } else if (args[i].startsWith("-") && !args[i].equals("-")) {
+        // also an option whose argument is missing
+        throw new IllegalArgumentException("unknown option " + args[i] + ", " + USAGE);
+      } else if (modelFile != null) {
+        throw new IllegalArgumentException("more than one model file, " + USAGE);
+      } else {
+        modelFile = args[i];
+      }
+    }
+
+    if (serve || socket != null) {
+      PrismServer server = new PrismServer(threads);
+      server.warmUp();
+      if (socket != null) {
+        server.serve(dir.resolve(socket));
+      } else {
+        server.serve(System.in);
+      }
+      return;
+    }
+
+    if (batchSource != null) {
+      new PrismBatch(rankingMode, threads).run(dir.resolve(batchSource).toString(), System.out);
+      return;
+    }
+
+    // everything else analyses a model, given by its file or a snapshot
+    if (modelFile == null && (importFile == null || buildOrderings != null || watch)) {
+      throw new IllegalArgumentException("no model file, " + USAGE);
+    }
+
+    if (buildOrderings != null) {
+      new PrismBuild(threads).run(dir.resolve(modelFile).toAbsolutePath(), Arrays.asList(buildOrderings.split(",")),
+                                  dir, System.out);
+      return;
+    }
+
+    if (watch) {
+      new PrismWatch(dir.resolve(modelFile), threads, outFile, compact).run();
+      return;
+    }
+
+    if (outFile != null) {
+      outFile = dir.resolve(outFile).toString();
+    }
+    if (streamKilobytes > 0 && importFile == null) {
+      throw new IllegalArgumentException("-stream ranks a snapshot, see -export and -import");
+    }
+    if (exportFile != null && cacheDir != null) {
+      // a cache hit is printed without parsing, there would be nothing to export
+      throw new IllegalArgumentException("-export needs the parsed model, it cannot be combined with -cache");
+    }
+
+    Metrics metrics = new Metrics();
+
+    // a snapshot has no AST: it is ranked, there is no model to rewrite
+    if (importFile != null) {
+      if (outFile != null || ordering != null || searchMillis > 0 || bddSize || ranges || tighten
+          || propsFile != null || cacheDir != null || exportFile != null) {
+        throw new IllegalArgumentException("a snapshot can only be ranked, the other options need the model source");
+      }
+      if (streamKilobytes > 0 && approxMillis > 0) {
+        throw new IllegalArgumentException("-approx needs the commands in memory, it cannot be combined with -stream");
+      }
+      try (Metrics.Phase p = metrics.phase("import")) {
+        Path snapshot = dir.resolve(importFile);
+        bddOpt = new PrismAnalyse(streamKilobytes > 0 ? ModelSnapshot.readHeader(snapshot) : ModelSnapshot.read(snapshot));
+      }
+      bddOpt.streamBytes = streamKilobytes << 10;
+      bddOpt.metrics = metrics;
+      bddOpt.sync = sync;
+      bddOpt.rankingMode = rankingMode;
+      bddOpt.threads = threads;
+      bddOpt.approxMillis = approxMillis;
+      bddOpt.rankVariables();
+      printMetrics(metrics, metricsFormat);
+      return;
+    }
+    byte[] propsText = null;
+    try (Metrics.Phase p = metrics.phase("read")) {
+      if (text == null) {
+        text = Files.readAllBytes(dir.resolve(modelFile));
+      }
+      if (propsFile != null) {
+        propsText = Files.readAllBytes(dir.resolve(propsFile));
+      }
+    }
+
+    // a hit is printed without parsing, the Prism parser is not even loaded;
+    // the ranking mode and the number of threads do not change the ranking,
+    // except that the components mode orders the components contiguously;
+    // -search and -approx runs are not cached, they stop at a wall-clock
+    // budget and their result depends on the timing and the threads
+    ResultCache cache = null;
+    String cacheKey = null;
+    if (cacheDir != null && searchMillis == 0 && approxMillis == 0) {
+      cache = new ResultCache(dir.resolve(cacheDir), cacheMegabytes << 20);
+      cacheKey = ResultCache.key(text, "order=" + ordering + ";bddsize=" + bddSize
+                                 + ";ranges=" + ranges + ";tighten=" + tighten + ";sync=" + sync
+                                 + ";components=" + (rankingMode == RankingMode.COMPONENTS)
+                                 + ";props=" + (propsText == null ? "" : new String(propsText, StandardCharsets.UTF_8))
+                                 + ";file=" + (outFile != null) + ";compact=" + compact);
+      ResultCache.Entry entry;
+      try (Metrics.Phase p = metrics.phase("cache")) {
+        entry = cache.get(cacheKey);
+      }
+      if (entry != null) {
+        System.out.print(entry.output);
+        if (outFile != null) {
+          Files.write(Paths.get(outFile), entry.model.getBytes(StandardCharsets.UTF_8));
+        }
+        printMetrics(metrics, metricsFormat);
+        return;
+      }
+    }
+
+    // with a cache all output is collected to be stored as well
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    OutputStream stdout = null;
+    if (cache != null) {
+      RoutedOutput.install();
+      stdout = RoutedOutput.out.redirect(captured);
+    }
+
+    LinkedList<String> varList;
+    String modelText = "";
+    try {
+      ModulesFile mf = parseModel(new ByteArrayInputStream(text), metrics);
+      try (Metrics.Phase p = metrics.phase("index")) {
+        bddOpt = new PrismAnalyse(mf);
+      }
+      if (propsText != null) {
+        try (Metrics.Phase p = metrics.phase("cone")) {
+          bddOpt.reduceToProperties(parseProperties(mf, new ByteArrayInputStream(propsText)));
+        }
+        try (Metrics.Phase p = metrics.phase("index")) {
+          bddOpt = new PrismAnalyse(mf);
+        }
+      }
+      bddOpt.metrics = metrics;
+      bddOpt.sync = sync;
+      bddOpt.rankingMode = rankingMode;
+      bddOpt.threads = threads;
+      bddOpt.approxMillis = approxMillis;
+
+      if (exportFile != null) {
+        try (Metrics.Phase p = metrics.phase("export")) {
+          ModelSnapshot.write(bddOpt, dir.resolve(exportFile));
+        }
+      }
+
+      if (ordering == null) {
+        varList = bddOpt.rankVariables();
+      } else {
+        try (Metrics.Phase p = metrics.phase("order")) {
+          varList = bddOpt.graphOrder(ordering);
+        }
+      }
+
+      if (searchMillis > 0) {
+        try (Metrics.Phase p = metrics.phase("search")) {
+          // the original globals stay in front, only the rest is searched
+          int nGlobals = mf.getNumGlobals();
+          OrderSearch search = new OrderSearch(new InteractionGraph(bddOpt), nGlobals, searchMillis, threads);
+          List<String> best = search.search(bddOpt.effectiveOrder(varList));
+          for (long[] step : search.history) {
+            System.out.println("// search: span " + step[1] + " after " + step[0] + " ms");
+          }
+          varList = new LinkedList<>(best.subList(nGlobals, best.size()));
+        }
+      }
+
+      if (ranges || tighten) {
+        try (Metrics.Phase p = metrics.phase("ranges")) {
+          bddOpt.showRanges(tighten);
+        }
+      }
+
+      if (bddSize) {
+        try (Metrics.Phase p = metrics.phase("bddsize")) {
+          List<String> declared = bddOpt.effectiveOrder(new LinkedList<String>());
+          List<String> suggested = bddOpt.effectiveOrder(varList);
+          System.out.println("// transition BDD nodes, declaration order: "
+                             + bddOpt.transitionNodes(declared));
+          System.out.println("// transition BDD nodes, suggested order: "
+                             + bddOpt.transitionNodes(suggested));
+        }
+      }
+      
+      try (Metrics.Phase p = metrics.phase("output")) {
+        for (String varName : varList) {
+          bddOpt.makeVarGlobal(mf, varName);
+        }
+
+        if (cache != null && outFile != null) {
+          // kept for the cache entry
+          StringWriter model = new StringWriter();
+          writeModel(mf, model, compact);
+          modelText = model.toString();
+          Files.write(Paths.get(outFile), modelText.getBytes(StandardCharsets.UTF_8));
+        } else {
+          writeModel(mf, outFile, compact);
+        }
+      }
+    } finally {
+      if (cache != null) {
+        RoutedOutput.out.redirect(stdout);
+        System.out.print(captured.toString("UTF-8"));
+      }
+    }
+
+    if (cache != null) {
+      ResultCache.Entry entry = bddOpt.cacheEntry(varList, captured.toString("UTF-8"));
+      entry.model = modelText;
+      cache.put(cacheKey, entry);
+    }
+
+    printMetrics(metrics, metricsFormat);
+  }
 }
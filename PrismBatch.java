@@ -0,0 +1,189 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import parser.ast.ModulesFile;
+
+// analyses many model files concurrently and writes one JSON line per model
+// as soon as it is finished
+public class PrismBatch {
+
+  static final String[] MODEL_EXTENSIONS = { ".pm", ".prism", ".nm", ".sm" };
+
+  PrismAnalyse.RankingMode rankingMode;
+  int threads;
+
+  PrintStream out;
+
+  public PrismBatch(PrismAnalyse.RankingMode rankingMode, int threads) {
+    this.rankingMode = rankingMode;
+    this.threads = threads;
+  }
+
+  // source is either a directory, all model files in it are analysed, or a
+  // file listing one model path per line, relative paths resolved against
+  // the directory of the list
+  static List<Path> listModels(String source) throws IOException {
+    Path path = Paths.get(source);
+    List<Path> models = new ArrayList<>();
+
+    if (Files.isDirectory(path)) {
+      try (Stream<Path> files = Files.list(path)) {
+        files.forEach(file -> {
+          for (String ext : MODEL_EXTENSIONS) {
+            if (file.getFileName().toString().endsWith(ext)) {
+              models.add(file);
+            }
+          }
+        });
+      }
+      Collections.sort(models);
+    } else {
+      for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          models.add(path.resolveSibling(line.trim()));
+        }
+      }
+    }
+    return models;
+  }
+
+  // virtual threads if the runtime has them (Java 21), otherwise a cached
+  // pool; only used for reading files
+  static ExecutorService newIoExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  void run(String source, PrintStream out) throws Exception {
+    this.out = out;
+
+    List<Path> models = listModels(source);
+
+    ExecutorService io = newIoExecutor();
+    ExecutorService cpu = Executors.newFixedThreadPool(threads);
+
+    // bounds the number of models read but not yet analysed
+    int maxInFlight = 2 * threads;
+    Semaphore inFlight = new Semaphore(maxInFlight);
+
+    try {
+      for (Path model : models) {
+        inFlight.acquire();
+        io.execute(() -> {
+          long start = System.nanoTime();
+          byte[] text;
+          try {
+            text = Files.readAllBytes(model);
+          } catch (IOException e) {
+            emit(errorRecord(model, e, start));
+            inFlight.release();
+            return;
+          }
+          cpu.execute(() -> {
+            try {
+              emit(analyse(model, text, start));
+            } catch (Throwable e) {
+              // isolates failures (including parser errors) to this model
+              emit(errorRecord(model, e, start));
+            } finally {
+              inFlight.release();
+            }
+          });
+        });
+      }
+      inFlight.acquire(maxInFlight);
+    } finally {
+      io.shutdown();
+      cpu.shutdown();
+    }
+  }
+
+  synchronized void emit(String record) {
+    out.println(record);
+    out.flush();
+  }
+
+  String analyse(Path model, byte[] text, long start) throws Exception {
+    long read = System.nanoTime();
+    ModulesFile mf = PrismAnalyse.parseModel(new ByteArrayInputStream(text));
+    long parsed = System.nanoTime();
+
+    PrismAnalyse analysis = new PrismAnalyse(mf, true);
+    analysis.rankingMode = rankingMode;
+    // the models themselves are already analysed concurrently
+    analysis.threads = 1;
+    List<String> ordering = analysis.rankVariables();
+    long ranked = System.nanoTime();
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"model\":").append(jsonString(model.toString()));
+    sb.append(",\"status\":\"ok\"");
+    sb.append(",\"ordering\":").append(jsonStrings(ordering));
+    sb.append(",\"weights\":[");
+    for (int i = 0; i < analysis.rankWeights.size(); i++) {
+      sb.append(i > 0 ? "," : "").append(analysis.rankWeights.get(i));
+    }
+    sb.append("]");
+    sb.append(",\"timings\":{\"read_ms\":").append(millis(start, read));
+    sb.append(",\"parse_ms\":").append(millis(read, parsed));
+    sb.append(",\"rank_ms\":").append(millis(parsed, ranked));
+    sb.append(",\"total_ms\":").append(millis(start, ranked)).append("}");
+    sb.append(",\"warnings\":").append(jsonStrings(analysis.warnings));
+    sb.append("}");
+    return sb.toString();
+  }
+
+  String errorRecord(Path model, Throwable e, long start) {
+    return "{\"model\":" + jsonString(model.toString())
+      + ",\"status\":\"error\",\"error\":" + jsonString(e.toString())
+      + ",\"timings\":{\"total_ms\":" + millis(start, System.nanoTime()) + "}}";
+  }
+
+  static String millis(long from, long to) {
+    return String.valueOf((to - from) / 1000000.0);
+  }
+
+  static String jsonStrings(List<String> strings) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < strings.size(); i++) {
+      sb.append(i > 0 ? "," : "").append(jsonString(strings.get(i)));
+    }
+    return sb.append("]").toString();
+  }
+
+  static String jsonString(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else if (c == '\t') {
+        sb.append("\\t");
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append("\"").toString();
+  }
+}
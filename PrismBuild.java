@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jdd.JDD;
+import parser.ast.ModulesFile;
+import prism.Model;
+import prism.Prism;
+import prism.PrismDevNullLog;
+
+// builds a model with Prism itself for each of several variable orders and
+// prints a CSV comparison of the transition MTBDDs: node count, reachable
+// states and transitions, build time and peak memory
+//
+// an order is "declared" (the model as it is), one of the orderings of
+// -order ("weight", "force", "spectral", "portfolio") or a file listing
+// variable names; it is applied with makeVarGlobal as in the rewritten
+// model. Every build runs in a JVM of its own, so that the builds do not
+// share the CUDD package of Prism and the peak memory is that of one build;
+// -threads builds run at a time
+//
+//   java PrismAnalyse -build declared,weight,my.order $PRISM_FILE
+public class PrismBuild {
+
+  static final String RESULT = "result ";
+  static final String CSV_HEADER = "order,status,trans_nodes,states,transitions,build_ms,peak_kb,error";
+
+  int threads;
+
+  public PrismBuild(int threads) {
+    this.threads = threads;
+  }
+
+  // the variables to make global, in order
+  static List<String> order(String ordering, Path model, Path dir) throws Exception {
+    if (ordering.equals("declared")) {
+      return new LinkedList<>();
+    }
+    ModulesFile mf = PrismAnalyse.parseModel(new ByteArrayInputStream(Files.readAllBytes(model)));
+    PrismAnalyse analysis = new PrismAnalyse(mf, true);
+    if (ordering.equals("weight") || ordering.equals("force") || ordering.equals("spectral")
+        || ordering.equals("portfolio")) {
+      return analysis.graphOrder(ordering);
+    }
+    List<String> order = new ArrayList<>();
+    for (String line : Files.readAllLines(dir.resolve(ordering), StandardCharsets.UTF_8)) {
+      for (String varName : line.trim().split("[\\s,]+")) {
+        if (varName.isEmpty()) {
+          continue;
+        }
+        if (analysis.vars.lookup(varName) < 0) {
+          throw new IllegalArgumentException("unknown variable " + varName + " in " + ordering);
+        }
+        order.add(varName);
+      }
+    }
+    return order;
+  }
+
+  // the JVM running build(): same runtime, class path, native library path
+  // (the CUDD libraries of Prism) and maximum heap as this one
+  static List<String> childCommand(Path model) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-Xmx" + (Runtime.getRuntime().maxMemory() >> 20) + "m");
+    // Prism's own launcher sets this for the deep recursion of the parser
+    command.add("-Xss4m");
+    command.add("-Djava.library.path=" + System.getProperty("java.library.path"));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("PrismBuild");
+    command.add(model.toString());
+    return command;
+  }
+
+  // one CSV row: forks a JVM building model with ordering applied
+  String measure(String ordering, Path model, Path dir) {
+    List<String> order;
+    try {
+      order = order(ordering, model, dir);
+    } catch (Exception e) {
+      return row(ordering, "error", "", e.toString());
+    }
+
+    String result = null;
+    StringBuilder output = new StringBuilder();
+    try {
+      Process child = new ProcessBuilder(childCommand(model)).redirectErrorStream(true).start();
+      try (Writer in = new OutputStreamWriter(child.getOutputStream(), StandardCharsets.UTF_8)) {
+        for (String varName : order) {
+          in.write(varName + "\n");
+        }
+      }
+      try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = out.readLine()) != null) {
+          if (line.startsWith(RESULT)) {
+            result = line.substring(RESULT.length());
+          } else {
+            output.append(line).append(' ');
+          }
+        }
+      }
+      child.waitFor();
+    } catch (Exception e) {
+      return row(ordering, "error", "", e.toString());
+    }
+    if (result == null) {
+      return row(ordering, "error", "", output.toString().trim());
+    }
+    return row(ordering, "ok", result, "");
+  }
+
+  static String row(String ordering, String status, String values, String error) {
+    if (values.isEmpty()) {
+      values = ",,,,";
+    }
+    return csv(ordering) + "," + status + "," + values + "," + csv(error);
+  }
+
+  static String csv(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+      return s;
+    }
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+
+  void run(Path model, List<String> orderings, Path dir, PrintStream out) throws Exception {
+    ExecutorService builds = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<String>> rows = new ArrayList<>();
+      for (String ordering : orderings) {
+        rows.add(builds.submit(() -> measure(ordering, model, dir)));
+      }
+      out.println(CSV_HEADER);
+      for (Future<String> row : rows) {
+        out.println(row.get());
+      }
+    } finally {
+      builds.shutdown();
+    }
+  }
+
+  // peak resident set of this process, which includes the MTBDDs of CUDD;
+  // where /proc is not available, the peak of the Java heap
+  static long peakKilobytes() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (Exception e) {
+      // not Linux
+    }
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak >> 10;
+  }
+
+  // the forked JVM: builds the model with the variables read from stdin made
+  // global, and prints one line RESULT nodes,states,transitions,ms,kilobytes
+  static void build(Path model) throws Exception {
+    ModulesFile mf = PrismAnalyse.parseModel(new ByteArrayInputStream(Files.readAllBytes(model)));
+    PrismAnalyse analysis = new PrismAnalyse(mf, true);
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    String varName;
+    while ((varName = in.readLine()) != null) {
+      analysis.makeVarGlobal(mf, varName);
+    }
+    // parsed again as the rewritten model would be, the variable indices of
+    // the AST are those of the original declarations
+    StringWriter text = new StringWriter();
+    PrismAnalyse.writeModel(mf, text, false);
+    mf = PrismAnalyse.parseModel(new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)));
+
+    Prism prism = new Prism(new PrismDevNullLog());
+    prism.initialise();
+    prism.loadPRISMModel(mf);
+    long start = System.nanoTime();
+    prism.buildModel();
+    long nanos = System.nanoTime() - start;
+    Model built = prism.getBuiltModel();
+    System.out.println(RESULT + JDD.GetNumNodes(built.getTrans()) + "," + built.getNumStatesString() + ","
+                       + built.getNumTransitionsString() + "," + nanos / 1000000.0 + "," + peakKilobytes());
+    prism.closeDown();
+  }
+
+  public static void main(String[] args) {
+    try {
+      build(Paths.get(args[0]));
+    } catch (Throwable e) {
+      System.out.println("exception " + e);
+      System.exit(1);
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,71 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+// thin client of PrismServer: sends its arguments as one request to the
+// socket and prints the response as if the analysis had run here, e.g.
+//
+//   java PrismClient /tmp/prismAnalyse.sock -bddsize models/polling.sm
+//
+// it loads none of the Prism classes; with "-" as model file the model text
+// is read from stdin
+public class PrismClient {
+
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.err.println("usage: PrismClient socket [options] model");
+      System.exit(2);
+    }
+    int status = 1;
+    try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      channel.connect(UnixDomainSocketAddress.of(args[0]));
+      Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+      BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+
+      StringBuilder request = new StringBuilder("1\t").append(Paths.get("").toAbsolutePath());
+      boolean text = false;
+      for (int i = 1; i < args.length; i++) {
+        request.append('\t').append(args[i]);
+        text |= args[i].equals("-");
+      }
+      out.write(request.append('\n').toString());
+      if (text) {
+        BufferedReader model = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = model.readLine()) != null) {
+          out.write((line.startsWith(PrismServer.END) ? PrismServer.END : "") + line + "\n");
+        }
+        out.write(PrismServer.END + "\n");
+      }
+      out.flush();
+
+      String header = in.readLine();
+      String line;
+      while ((line = in.readLine()) != null && !line.equals(PrismServer.END)) {
+        if (line.startsWith("o ")) {
+          System.out.println(line.substring(2));
+        } else if (line.startsWith("e ")) {
+          System.err.println(line.substring(2));
+        }
+      }
+      if (header != null && header.startsWith("1 ok")) {
+        status = 0;
+      } else if (header != null) {
+        System.err.println(header.substring(2));
+      }
+    } catch (Exception e) {
+      System.err.println("exception " + e);
+    }
+    System.exit(status);
+  }
+}
@@ -0,0 +1,219 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import parser.ast.ModulesFile;
+
+// keeps the JVM, the Prism parser and the JIT-compiled analysis resident:
+// requests are read from stdin (-serve) or from the connections to a Unix
+// domain socket (-socket path), run on -threads worker threads and answered
+// with the output the same command line would have printed
+//
+// protocol, lines of UTF-8:
+//   request:  id TAB directory TAB argument TAB argument ...
+//             the arguments of a command line run, relative paths resolved
+//             against directory; with "-" as model file the model text
+//             follows, ended by a line "." (lines of the text starting with
+//             "." are sent with one more ".")
+//   response: id " ok" or id " error " message
+//             "o " line for each line printed to stdout
+//             "e " line for each line printed to stderr (-metrics)
+//             "."
+// on stdin the responses are written as the requests finish, a socket
+// connection is answered in the order of its requests
+public class PrismServer {
+
+  static final String END = ".";
+  // analyses of generated models before the first request
+  static final int WARMUP_ROUNDS = 20;
+  // the analysis recurses over the expressions, a deeply nested model needs
+  // more than the default stack of a thread
+  static final long WORKER_STACK = 16L << 20;
+
+  static class Request {
+    String id;
+    Path dir;
+    String[] args;
+    byte[] text;
+    String error;
+  }
+
+  int threads;
+  ExecutorService workers;
+
+  public PrismServer(int threads) throws IOException {
+    this.threads = threads;
+    this.workers = Executors.newFixedThreadPool(threads, r -> new Thread(null, r, "prismAnalyse-worker", WORKER_STACK));
+    RoutedOutput.install();
+  }
+
+  void warmUp() throws Exception {
+    ModelGenerator gen = new ModelGenerator();
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      gen.seed = i;
+      ModulesFile mf = gen.generateModulesFile();
+      for (PrismAnalyse.RankingMode mode : PrismAnalyse.RankingMode.values()) {
+        PrismAnalyse analysis = new PrismAnalyse(mf, true);
+        analysis.rankingMode = mode;
+        analysis.threads = threads;
+        analysis.rankVariables();
+      }
+    }
+  }
+
+  // the next request, null at the end of the input
+  static Request readRequest(BufferedReader in) throws IOException {
+    String line;
+    do {
+      line = in.readLine();
+      if (line == null) {
+        return null;
+      }
+    } while (line.isEmpty());
+
+    String[] fields = line.split("\t");
+    Request r = new Request();
+    r.id = fields[0];
+    if (fields.length < 2) {
+      r.error = "missing directory";
+      return r;
+    }
+    r.dir = Paths.get(fields[1]);
+    r.args = Arrays.copyOfRange(fields, 2, fields.length);
+    for (String arg : r.args) {
+      if (arg.equals("-serve") || arg.equals("-socket") || arg.equals("-watch") || arg.equals("-batch")) {
+        r.error = arg + " is not available in a request";
+      }
+    }
+
+    if (Arrays.asList(r.args).contains("-")) {
+      StringBuilder sb = new StringBuilder();
+      while ((line = in.readLine()) != null && !line.equals(END)) {
+        sb.append(line.startsWith(END) ? line.substring(1) : line).append('\n');
+      }
+      r.text = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    return r;
+  }
+
+  // runs r with the output of this thread captured
+  String respond(Request r) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    OutputStream previousOut = RoutedOutput.out.redirect(out);
+    OutputStream previousErr = RoutedOutput.err.redirect(err);
+    String status = "ok";
+    try {
+      if (r.error != null) {
+        status = "error " + r.error;
+      } else {
+        PrismAnalyse.run(r.args, r.dir, r.text);
+      }
+    } catch (Throwable e) {
+      // also a stack overflow or an exhausted heap: the server keeps running
+      // and only this request fails
+      status = "error " + e.toString().replace('\n', ' ');
+    } finally {
+      System.out.flush();
+      System.err.flush();
+      RoutedOutput.out.redirect(previousOut);
+      RoutedOutput.err.redirect(previousErr);
+    }
+
+    StringBuilder sb = new StringBuilder(r.id).append(' ').append(status).append('\n');
+    appendLines(sb, "o ", out);
+    appendLines(sb, "e ", err);
+    return sb.append(END).append('\n').toString();
+  }
+
+  static void appendLines(StringBuilder sb, String prefix, ByteArrayOutputStream captured) {
+    String text = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+    if (text.isEmpty()) {
+      return;
+    }
+    if (text.endsWith("\n")) {
+      text = text.substring(0, text.length() - 1);
+    }
+    for (String line : text.split("\n", -1)) {
+      sb.append(prefix).append(line).append('\n');
+    }
+  }
+
+  // requests on stdin, until it is closed and all are answered
+  void serve(InputStream stdin) throws Exception {
+    PrintStream out = RoutedOutput.out.original;
+    BufferedReader in = new BufferedReader(new InputStreamReader(stdin, StandardCharsets.UTF_8));
+    Request r;
+    while ((r = readRequest(in)) != null) {
+      Request request = r;
+      workers.execute(() -> {
+        String response = respond(request);
+        synchronized (out) {
+          out.print(response);
+          out.flush();
+        }
+      });
+    }
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+  }
+
+  // requests on the connections to socket, until the process is stopped
+  void serve(Path socket) throws Exception {
+    Files.deleteIfExists(socket);
+    ExecutorService connections = PrismBatch.newIoExecutor();
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException e) {
+          // nothing left to do
+        }
+      }));
+      System.err.println("// listening on " + socket);
+      while (true) {
+        SocketChannel channel = server.accept();
+        connections.execute(() -> handle(channel));
+      }
+    }
+  }
+
+  void handle(SocketChannel channel) {
+    try (SocketChannel c = channel;
+         BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+         Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8))) {
+      Request r;
+      while ((r = readRequest(in)) != null) {
+        Request request = r;
+        out.write(workers.submit(() -> respond(request)).get());
+        out.flush();
+      }
+    } catch (Exception e) {
+      // the client went away, its request is finished anyway
+    }
+  }
+}
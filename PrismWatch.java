@@ -0,0 +1,99 @@
+import java.io.ByteArrayInputStream;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import java.util.LinkedList;
+
+import parser.ast.ModulesFile;
+
+// analyses a model file and again every time it is saved, keeping the
+// previous analysis so that unchanged commands are not recompiled and their
+// weight contributions are reused by the incremental ranking
+public class PrismWatch {
+
+  // editors often write a file in several steps
+  static final long SETTLE_MILLIS = 50;
+
+  Path model;
+  int threads;
+  String outFile;
+  boolean compact;
+
+  PrismAnalyse previous;
+
+  public PrismWatch(Path model, int threads, String outFile, boolean compact) {
+    this.model = model.toAbsolutePath();
+    this.threads = threads;
+    this.outFile = outFile;
+    this.compact = compact;
+  }
+
+  void analyse() throws Exception {
+    long start = System.nanoTime();
+    ModulesFile mf = PrismAnalyse.parseModel(new ByteArrayInputStream(Files.readAllBytes(model)));
+    long parsed = System.nanoTime();
+
+    PrismAnalyse analysis;
+    if (previous == null) {
+      analysis = new PrismAnalyse(mf);
+      analysis.threads = threads;
+      analysis.memoize = true;
+    } else {
+      analysis = new PrismAnalyse(mf, previous);
+    }
+    analysis.rankingMode = PrismAnalyse.RankingMode.INCREMENTAL;
+    LinkedList<String> varList = analysis.rankVariables();
+    long ranked = System.nanoTime();
+
+    System.out.println("// analysed in " + PrismBatch.millis(start, ranked) + " ms (parse "
+                       + PrismBatch.millis(start, parsed) + " ms), reused " + analysis.reusedCommands
+                       + " of " + analysis.getCommandInfos().size() + " commands");
+
+    for (String varName : varList) {
+      analysis.makeVarGlobal(mf, varName);
+    }
+    PrismAnalyse.writeModel(mf, outFile, compact);
+
+    previous = analysis;
+  }
+
+  void run() throws Exception {
+    analyse();
+
+    WatchService watcher = FileSystems.getDefault().newWatchService();
+    model.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+    while (true) {
+      WatchKey key = watcher.take();
+      boolean changed = false;
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (model.getFileName().equals(event.context())) {
+          changed = true;
+        }
+      }
+      key.reset();
+
+      if (changed) {
+        Thread.sleep(SETTLE_MILLIS);
+        // events of the same save
+        WatchKey more;
+        while ((more = watcher.poll()) != null) {
+          more.pollEvents();
+          more.reset();
+        }
+        try {
+          analyse();
+        } catch (Exception e) {
+          // the previous analysis is kept until the model parses again
+          System.out.println("// exception " + e);
+        }
+      }
+    }
+  }
+}
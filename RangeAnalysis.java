@@ -0,0 +1,824 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import parser.Values;
+import parser.ast.*;
+import parser.ast.Module;
+import parser.type.TypeInt;
+
+// reachable value ranges of the state variables, by abstract interpretation
+// over intervals: starting from the initial values, every command whose guard
+// can hold assigns the intervals of its update expressions, evaluated under
+// the restrictions of the guard ("x < 5" restricts x to at most 4);
+// synchronisation is ignored, which can only widen the ranges, so they are
+// sound
+//
+// the fixpoint is computed in rounds: the commands reading a variable that
+// changed in the previous round are evaluated in parallel against the same
+// intervals and their results joined afterwards, so the result does not
+// depend on the number of threads; a variable that grew WIDEN_AFTER times
+// is widened to its declared bound, and narrowing rounds over all commands
+// recover what the widening gave away
+public class RangeAnalysis {
+
+  static final int WIDEN_AFTER = 8;
+  static final int NARROW_ROUNDS = 8;
+  // commands per fork/join task
+  static final int CHUNK_COMMANDS = 64;
+
+  static final double INF = Double.POSITIVE_INFINITY;
+  static final double[] TOP = { -INF, INF };
+  static final double[] FALSE = { 0, 0 };
+  static final double[] TRUE = { 1, 1 };
+  static final double[] UNKNOWN = { 0, 1 };
+
+  // variable var restricted to [lo, hi] on top of parent; the root has no
+  // variable and stands for the intervals of the current round, null is an
+  // environment in which the guard cannot hold
+  static class Env {
+    Env parent;
+    int var = -1;
+    double lo;
+    double hi;
+  }
+
+  // assignments of a command: variable and interval per update element
+  static class Post {
+    int[] vars;
+    double[] lo;
+    double[] hi;
+  }
+
+  PrismAnalyse analysis;
+  ModulesFile mf;
+  int threads;
+
+  HashMap<String, Double> constants = new HashMap<>();
+
+  int nVars;
+  Declaration[] decls;
+  // declared range, [0, 1] for booleans, unbounded for anything else
+  double[] declLow;
+  double[] declHigh;
+  boolean[] isInt;
+
+  // intervals of the current round, read by all tasks of a round
+  double[] lo;
+  double[] hi;
+  double[] initLo;
+  double[] initHi;
+
+  Command[] commands;
+  // commands whose guard or updates read each variable
+  int[][] readers;
+
+  int rounds;
+  boolean widened;
+
+  Env top = new Env();
+
+  public RangeAnalysis(PrismAnalyse analysis, int threads) {
+    this.analysis = analysis;
+    this.mf = analysis.mf;
+    this.threads = threads;
+
+    Values values = mf.getConstantValues();
+    if (values != null) {
+      for (int i = 0; i < values.getNumValues(); i++) {
+        constants.put(values.getName(i), TransitionBdd.toDouble(values.getValue(i)));
+      }
+    }
+
+    nVars = analysis.vars.size();
+    decls = new Declaration[nVars];
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      decls[analysis.varId(mf.getGlobal(i).getName())] = mf.getGlobal(i);
+    }
+    ArrayList<Command> commandList = new ArrayList<>();
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumDeclarations(); j++) {
+        decls[analysis.varId(m.getDeclaration(j).getName())] = m.getDeclaration(j);
+      }
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        commandList.add(m.getCommand(j));
+      }
+    }
+    commands = commandList.toArray(new Command[0]);
+
+    declLow = new double[nVars];
+    declHigh = new double[nVars];
+    isInt = new boolean[nVars];
+    for (int v = 0; v < nVars; v++) {
+      DeclarationType type = decls[v].getDeclType();
+      if (type instanceof DeclarationInt) {
+        declLow[v] = constantValue(((DeclarationInt) type).getLow());
+        declHigh[v] = constantValue(((DeclarationInt) type).getHigh());
+        isInt[v] = true;
+      } else if (type instanceof DeclarationBool) {
+        declLow[v] = 0;
+        declHigh[v] = 1;
+      } else {
+        declLow[v] = -INF;
+        declHigh[v] = INF;
+      }
+    }
+
+    // the support index is not thread-safe, the readers are computed here
+    int[] count = new int[nVars];
+    long[][] reads = new long[commands.length][];
+    for (int c = 0; c < commands.length; c++) {
+      long[] s = analysis.support(commands[c].getGuard());
+      Updates us = commands[c].getUpdates();
+      for (int k = 0; k < us.getNumUpdates(); k++) {
+        Update u = us.getUpdate(k);
+        for (int l = 0; l < u.getNumElements(); l++) {
+          s = PrismAnalyse.union(s, analysis.support(u.getExpression(l)));
+        }
+      }
+      reads[c] = s;
+      for (int v : PrismAnalyse.toIds(s)) {
+        count[v]++;
+      }
+    }
+    readers = new int[nVars][];
+    for (int v = 0; v < nVars; v++) {
+      readers[v] = new int[count[v]];
+      count[v] = 0;
+    }
+    for (int c = 0; c < commands.length; c++) {
+      for (int v : PrismAnalyse.toIds(reads[c])) {
+        readers[v][count[v]++] = c;
+      }
+    }
+  }
+
+  double constantValue(Expression e) {
+    double[] value = eval(e, top);
+    if (value[0] != value[1]) {
+      throw new IllegalStateException("not a constant expression: " + e);
+    }
+    return value[0];
+  }
+
+  double[] constant(String name) {
+    Double value = constants.get(name);
+    if (value == null) {
+      throw new IllegalStateException("model has undefined constants");
+    }
+    return new double[] { value, value };
+  }
+
+  double[] value(int var, Env env) {
+    for (Env b = env; b.var >= 0; b = b.parent) {
+      if (b.var == var) {
+        return new double[] { b.lo, b.hi };
+      }
+    }
+    return new double[] { lo[var], hi[var] };
+  }
+
+  Env bind(Env env, int var, double l, double h) {
+    Env b = new Env();
+    b.parent = env;
+    b.var = var;
+    b.lo = l;
+    b.hi = h;
+    return b;
+  }
+
+  static double[] join(double[] a, double[] b) {
+    return new double[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) };
+  }
+
+  static double[] truth(boolean canBeFalse, boolean canBeTrue) {
+    return canBeFalse ? (canBeTrue ? UNKNOWN : FALSE) : TRUE;
+  }
+
+  static double[] compare(int op, double[] a, double[] b) {
+    switch (op) {
+    case ExpressionBinaryOp.EQ:
+      return truth(!(a[0] == a[1] && b[0] == b[1] && a[0] == b[0]), a[0] <= b[1] && b[0] <= a[1]);
+    case ExpressionBinaryOp.NE:
+      return truth(a[0] <= b[1] && b[0] <= a[1], !(a[0] == a[1] && b[0] == b[1] && a[0] == b[0]));
+    case ExpressionBinaryOp.LT:
+      return truth(a[1] >= b[0], a[0] < b[1]);
+    case ExpressionBinaryOp.LE:
+      return truth(a[1] > b[0], a[0] <= b[1]);
+    case ExpressionBinaryOp.GT:
+      return compare(ExpressionBinaryOp.LT, b, a);
+    default:
+      return compare(ExpressionBinaryOp.LE, b, a);
+    }
+  }
+
+  // smallest interval containing op applied to all corners; unbounded if a
+  // corner is undefined (0 * infinity)
+  static double[] corners(int op, double[] a, double[] b) {
+    double l = INF;
+    double h = -INF;
+    for (double x : a) {
+      for (double y : b) {
+        double r = TransitionBdd.apply(op, x, y);
+        if (Double.isNaN(r)) {
+          return TOP;
+        }
+        l = Math.min(l, r);
+        h = Math.max(h, r);
+      }
+    }
+    return new double[] { l, h };
+  }
+
+  static double[] arith(int op, double[] a, double[] b) {
+    switch (op) {
+    case ExpressionBinaryOp.PLUS:
+      return new double[] { a[0] + b[0], a[1] + b[1] };
+    case ExpressionBinaryOp.MINUS:
+      return new double[] { a[0] - b[1], a[1] - b[0] };
+    case ExpressionBinaryOp.DIVIDE:
+      if (b[0] <= 0 && b[1] >= 0) {
+        return TOP;
+      }
+      return corners(op, a, b);
+    default:
+      return corners(op, a, b);
+    }
+  }
+
+  double[] func(ExpressionFunc eFunc, Env env) {
+    double[] a = eval(eFunc.getOperand(0), env);
+    switch (eFunc.getNameCode()) {
+    case ExpressionFunc.FLOOR:
+      return new double[] { Math.floor(a[0]), Math.floor(a[1]) };
+    case ExpressionFunc.CEIL:
+      return new double[] { Math.ceil(a[0]), Math.ceil(a[1]) };
+    case ExpressionFunc.MIN:
+    case ExpressionFunc.MAX:
+      for (int i = 1; i < eFunc.getNumOperands(); i++) {
+        double[] b = eval(eFunc.getOperand(i), env);
+        if (eFunc.getNameCode() == ExpressionFunc.MIN) {
+          a = new double[] { Math.min(a[0], b[0]), Math.min(a[1], b[1]) };
+        } else {
+          a = new double[] { Math.max(a[0], b[0]), Math.max(a[1], b[1]) };
+        }
+      }
+      return a;
+    case ExpressionFunc.MOD: {
+      // as in TransitionBdd, the result is in [0, divisor)
+      double[] b = eval(eFunc.getOperand(1), env);
+      if (b[0] <= 0) {
+        return TOP;
+      }
+      if (a[0] >= 0 && a[1] < b[0]) {
+        return a;
+      }
+      return new double[] { 0, b[1] - 1 };
+    }
+    default:
+      if (eFunc.getNumOperands() == 2) {
+        double[] b = eval(eFunc.getOperand(1), env);
+        if (a[0] == a[1] && b[0] == b[1]) {
+          double r = TransitionBdd.applyFunc(eFunc.getNameCode(), a[0], b[0]);
+          return new double[] { r, r };
+        }
+      }
+      return TOP;
+    }
+  }
+
+  // interval of the values of e in env; truth values are intervals in [0, 1]
+  double[] eval(Expression e, Env env) {
+    return new Eval(env).visit(e);
+  }
+
+  class Eval extends ExpressionVisitor<double[]> {
+    Env env;
+
+    Eval(Env env) {
+      super(analysis.formulas, analysis.labels);
+      this.env = env;
+    }
+
+    double[] visitLiteral(ExpressionLiteral e) {
+      double value = TransitionBdd.toDouble(e.getValue());
+      return new double[] { value, value };
+    }
+
+    double[] visitConstant(ExpressionConstant e) {
+      return constant(e.getName());
+    }
+
+    double[] visitVar(ExpressionVar e) {
+      int var = analysis.vars.lookup(e.getName());
+      return var >= 0 ? value(var, env) : TOP;
+    }
+
+    double[] visitBinaryOp(ExpressionBinaryOp binOp) {
+      double[] a = visit(binOp.getOperand1());
+      double[] b = visit(binOp.getOperand2());
+      switch (binOp.getOperator()) {
+      case ExpressionBinaryOp.AND:
+        return new double[] { Math.min(a[0], b[0]), Math.min(a[1], b[1]) };
+      case ExpressionBinaryOp.OR:
+        return new double[] { Math.max(a[0], b[0]), Math.max(a[1], b[1]) };
+      case ExpressionBinaryOp.IMPLIES:
+        return new double[] { Math.max(1 - a[1], b[0]), Math.max(1 - a[0], b[1]) };
+      case ExpressionBinaryOp.IFF:
+        return compare(ExpressionBinaryOp.EQ, a, b);
+      case ExpressionBinaryOp.EQ:
+      case ExpressionBinaryOp.NE:
+      case ExpressionBinaryOp.LT:
+      case ExpressionBinaryOp.LE:
+      case ExpressionBinaryOp.GT:
+      case ExpressionBinaryOp.GE:
+        return compare(binOp.getOperator(), a, b);
+      default:
+        return arith(binOp.getOperator(), a, b);
+      }
+    }
+
+    double[] visitUnaryOp(ExpressionUnaryOp unaryOp) {
+      double[] a = visit(unaryOp.getOperand());
+      if (unaryOp.getOperator() == ExpressionUnaryOp.NOT) {
+        return new double[] { 1 - a[1], 1 - a[0] };
+      } else if (unaryOp.getOperator() == ExpressionUnaryOp.MINUS) {
+        return new double[] { -a[1], -a[0] };
+      }
+      return a;
+    }
+
+    double[] visitITE(ExpressionITE ite) {
+      double[] cond = visit(ite.getOperand1());
+      Env thenEnv = cond[1] > 0 ? refine(env, ite.getOperand1(), true) : null;
+      Env elseEnv = cond[0] < 1 ? refine(env, ite.getOperand1(), false) : null;
+      if (thenEnv == null && elseEnv == null) {
+        return TOP;
+      } else if (elseEnv == null) {
+        return eval(ite.getOperand2(), thenEnv);
+      } else if (thenEnv == null) {
+        return eval(ite.getOperand3(), elseEnv);
+      }
+      return join(eval(ite.getOperand2(), thenEnv), eval(ite.getOperand3(), elseEnv));
+    }
+
+    double[] visitFunc(ExpressionFunc eFunc) {
+      return func(eFunc, env);
+    }
+
+    // a label without a definition and any kind without interval semantics
+    double[] visitOperator(Expression e, int nOperands) {
+      return TOP;
+    }
+
+    double[] visitOther(Expression e) {
+      return TOP;
+    }
+  }
+
+  static int negate(int op) {
+    switch (op) {
+    case ExpressionBinaryOp.EQ: return ExpressionBinaryOp.NE;
+    case ExpressionBinaryOp.NE: return ExpressionBinaryOp.EQ;
+    case ExpressionBinaryOp.LT: return ExpressionBinaryOp.GE;
+    case ExpressionBinaryOp.LE: return ExpressionBinaryOp.GT;
+    case ExpressionBinaryOp.GT: return ExpressionBinaryOp.LE;
+    default: return ExpressionBinaryOp.LT;
+    }
+  }
+
+  // a op b is b swap(op) a
+  static int swap(int op) {
+    switch (op) {
+    case ExpressionBinaryOp.LT: return ExpressionBinaryOp.GT;
+    case ExpressionBinaryOp.LE: return ExpressionBinaryOp.GE;
+    case ExpressionBinaryOp.GT: return ExpressionBinaryOp.LT;
+    case ExpressionBinaryOp.GE: return ExpressionBinaryOp.LE;
+    default: return op;
+    }
+  }
+
+  static boolean isComparison(int op) {
+    return op >= ExpressionBinaryOp.EQ && op <= ExpressionBinaryOp.LE;
+  }
+
+  // state variable of e, looking through parentheses; -1 if e is none
+  int varOf(Expression e) {
+    return new ExpressionVisitor<Integer>(analysis.formulas, analysis.labels) {
+      Integer visitVar(ExpressionVar e) {
+        return analysis.vars.lookup(e.getName());
+      }
+
+      Integer visitUnaryOp(ExpressionUnaryOp e) {
+        return e.getOperator() == ExpressionUnaryOp.PARENTH ? visit(e.getOperand()) : -1;
+      }
+
+      Integer visitConstant(ExpressionConstant e) {
+        return -1;
+      }
+
+      Integer visitLiteral(ExpressionLiteral e) {
+        return -1;
+      }
+
+      Integer visitOperator(Expression e, int nOperands) {
+        return -1;
+      }
+
+      Integer visitOther(Expression e) {
+        return -1;
+      }
+    }.visit(e);
+  }
+
+  // env with var restricted to the values v satisfying v op bound, state
+  // variables take integer values only
+  Env restrict(Env env, int var, int op, double[] bound) {
+    double[] cur = value(var, env);
+    double l = cur[0];
+    double h = cur[1];
+    switch (op) {
+    case ExpressionBinaryOp.EQ:
+      l = Math.max(l, Math.ceil(bound[0]));
+      h = Math.min(h, Math.floor(bound[1]));
+      break;
+    case ExpressionBinaryOp.NE:
+      if (bound[0] == bound[1] && l == bound[0]) {
+        l++;
+      } else if (bound[0] == bound[1] && h == bound[0]) {
+        h--;
+      }
+      break;
+    case ExpressionBinaryOp.LT:
+      h = Math.min(h, Math.ceil(bound[1]) - 1);
+      break;
+    case ExpressionBinaryOp.LE:
+      h = Math.min(h, Math.floor(bound[1]));
+      break;
+    case ExpressionBinaryOp.GT:
+      l = Math.max(l, Math.floor(bound[0]) + 1);
+      break;
+    default:
+      l = Math.max(l, Math.ceil(bound[0]));
+    }
+    if (l > h) {
+      return null;
+    }
+    return l == cur[0] && h == cur[1] ? env : bind(env, var, l, h);
+  }
+
+  // env1 or env2, both refinements of env
+  Env join(Env env, Env env1, Env env2) {
+    if (env1 == null) {
+      return env2;
+    } else if (env2 == null) {
+      return env1;
+    }
+    Env result = env;
+    ArrayList<Integer> done = new ArrayList<>();
+    for (Env chain : new Env[] { env1, env2 }) {
+      for (Env b = chain; b != env; b = b.parent) {
+        if (!done.contains(b.var)) {
+          done.add(b.var);
+          double[] joined = join(value(b.var, env1), value(b.var, env2));
+          double[] cur = value(b.var, env);
+          if (joined[0] != cur[0] || joined[1] != cur[1]) {
+            result = bind(result, b.var, joined[0], joined[1]);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // env restricted to the states in which e is true (positive) or false
+  Env refine(Env env, Expression e, boolean positive) {
+    return new Refine(env, positive).visit(e);
+  }
+
+  // the boolean connectives and comparisons of variables restrict env, any
+  // other expression only rules it out if it cannot take the value
+  class Refine extends ExpressionVisitor<Env> {
+    Env env;
+    boolean positive;
+
+    Refine(Env env, boolean positive) {
+      super(analysis.formulas, analysis.labels);
+      this.env = env;
+      this.positive = positive;
+    }
+
+    Env byValue(Expression e) {
+      double[] t = eval(e, env);
+      if (positive ? t[1] == 0 : t[0] == 1) {
+        return null;
+      }
+      return env;
+    }
+
+    Env visitUnaryOp(ExpressionUnaryOp unaryOp) {
+      if (unaryOp.getOperator() == ExpressionUnaryOp.MINUS) {
+        return byValue(unaryOp);
+      }
+      boolean not = unaryOp.getOperator() == ExpressionUnaryOp.NOT;
+      return refine(env, unaryOp.getOperand(), not ? !positive : positive);
+    }
+
+    Env visitBinaryOp(ExpressionBinaryOp binOp) {
+      Expression a = binOp.getOperand1();
+      Expression b = binOp.getOperand2();
+      int op = binOp.getOperator();
+      if ((op == ExpressionBinaryOp.AND && positive) || (op == ExpressionBinaryOp.OR && !positive)) {
+        Env first = refine(env, a, positive);
+        return first != null ? refine(first, b, positive) : null;
+      } else if (op == ExpressionBinaryOp.AND || op == ExpressionBinaryOp.OR) {
+        return join(env, refine(env, a, positive), refine(env, b, positive));
+      } else if (op == ExpressionBinaryOp.IMPLIES && positive) {
+        return join(env, refine(env, a, false), refine(env, b, true));
+      } else if (op == ExpressionBinaryOp.IMPLIES) {
+        Env first = refine(env, a, true);
+        return first != null ? refine(first, b, false) : null;
+      } else if (isComparison(op)) {
+        if (!positive) {
+          op = negate(op);
+        }
+        double[] t = compare(op, eval(a, env), eval(b, env));
+        if (t[1] == 0) {
+          return null;
+        }
+        Env result = env;
+        int varA = varOf(a);
+        if (varA >= 0) {
+          result = restrict(result, varA, op, eval(b, result));
+        }
+        int varB = varOf(b);
+        if (result != null && varB >= 0) {
+          result = restrict(result, varB, swap(op), eval(a, result));
+        }
+        return result;
+      }
+      return byValue(binOp);
+    }
+
+    Env visitVar(ExpressionVar e) {
+      int var = varOf(e);
+      if (var >= 0) {
+        return restrict(env, var, ExpressionBinaryOp.EQ, positive ? TRUE : FALSE);
+      }
+      return byValue(e);
+    }
+
+    Env visitConstant(ExpressionConstant e) {
+      return byValue(e);
+    }
+
+    Env visitLiteral(ExpressionLiteral e) {
+      return byValue(e);
+    }
+
+    Env visitOperator(Expression e, int nOperands) {
+      return byValue(e);
+    }
+
+    Env visitOther(Expression e) {
+      return byValue(e);
+    }
+  }
+
+  // assignments of c in the current intervals, null if its guard cannot hold;
+  // values outside the declared range are dropped, Prism rejects them
+  Post post(Command c) {
+    Env guard = refine(top, c.getGuard(), true);
+    if (guard == null) {
+      return null;
+    }
+    Updates us = c.getUpdates();
+    int n = 0;
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      n += us.getUpdate(k).getNumElements();
+    }
+    Post p = new Post();
+    p.vars = new int[n];
+    p.lo = new double[n];
+    p.hi = new double[n];
+    n = 0;
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      Update u = us.getUpdate(k);
+      for (int l = 0; l < u.getNumElements(); l++) {
+        int var = analysis.vars.lookup(u.getVar(l));
+        double[] value = eval(u.getExpression(l), guard);
+        p.vars[n] = var;
+        p.lo[n] = Math.max(value[0], declLow[var]);
+        p.hi[n] = Math.min(value[1], declHigh[var]);
+        n++;
+      }
+    }
+    return p;
+  }
+
+  // computes post() of the commands work[from, to) into results
+  class PostTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int[] work;
+    int from;
+    int to;
+    Post[] results;
+
+    public PostTask(int[] work, int from, int to, Post[] results) {
+      this.work = work;
+      this.from = from;
+      this.to = to;
+      this.results = results;
+    }
+
+    protected void compute() {
+      if (to - from > CHUNK_COMMANDS) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new PostTask(work, from, mid, results), new PostTask(work, mid, to, results));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        results[i] = post(commands[work[i]]);
+      }
+    }
+  }
+
+  static void joinPosts(Post[] results, double[] newLo, double[] newHi) {
+    for (Post p : results) {
+      if (p == null) {
+        continue;
+      }
+      for (int i = 0; i < p.vars.length; i++) {
+        if (p.lo[i] <= p.hi[i]) {
+          newLo[p.vars[i]] = Math.min(newLo[p.vars[i]], p.lo[i]);
+          newHi[p.vars[i]] = Math.max(newHi[p.vars[i]], p.hi[i]);
+        }
+      }
+    }
+  }
+
+  void initialValues() {
+    initLo = new double[nVars];
+    initHi = new double[nVars];
+    for (int v = 0; v < nVars; v++) {
+      if (mf.getInitialStates() != null || decls[v].getStartOrDefault() == null) {
+        // an init ... endinit block can start anywhere
+        initLo[v] = declLow[v];
+        initHi[v] = declHigh[v];
+      } else {
+        double[] value = eval(decls[v].getStartOrDefault(), top);
+        initLo[v] = value[0];
+        initHi[v] = value[1];
+      }
+    }
+  }
+
+  void run() {
+    initialValues();
+    lo = initLo.clone();
+    hi = initHi.clone();
+
+    int[] all = new int[commands.length];
+    for (int c = 0; c < all.length; c++) {
+      all[c] = c;
+    }
+    int[] grew = new int[nVars];
+    boolean[] scheduled = new boolean[commands.length];
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      int[] work = all;
+      while (work.length > 0) {
+        rounds++;
+        Post[] results = new Post[work.length];
+        pool.invoke(new PostTask(work, 0, work.length, results));
+
+        double[] newLo = lo.clone();
+        double[] newHi = hi.clone();
+        joinPosts(results, newLo, newHi);
+
+        ArrayList<Integer> next = new ArrayList<>();
+        for (int v = 0; v < nVars; v++) {
+          if (newLo[v] == lo[v] && newHi[v] == hi[v]) {
+            continue;
+          }
+          if (++grew[v] > WIDEN_AFTER) {
+            widened = true;
+            if (newLo[v] < lo[v]) {
+              newLo[v] = declLow[v];
+            }
+            if (newHi[v] > hi[v]) {
+              newHi[v] = declHigh[v];
+            }
+          }
+          for (int c : readers[v]) {
+            if (!scheduled[c]) {
+              scheduled[c] = true;
+              next.add(c);
+            }
+          }
+        }
+        lo = newLo;
+        hi = newHi;
+
+        work = new int[next.size()];
+        for (int i = 0; i < work.length; i++) {
+          work[i] = next.get(i);
+          scheduled[work[i]] = false;
+        }
+      }
+
+      // every round starts from an upper bound of the reachable values and
+      // stays one
+      for (int r = 0; widened && r < NARROW_ROUNDS; r++) {
+        rounds++;
+        Post[] results = new Post[all.length];
+        pool.invoke(new PostTask(all, 0, all.length, results));
+
+        double[] newLo = initLo.clone();
+        double[] newHi = initHi.clone();
+        joinPosts(results, newLo, newHi);
+
+        boolean changed = false;
+        for (int v = 0; v < nVars; v++) {
+          newLo[v] = Math.max(newLo[v], lo[v]);
+          newHi[v] = Math.min(newHi[v], hi[v]);
+          changed |= newLo[v] != lo[v] || newHi[v] != hi[v];
+        }
+        lo = newLo;
+        hi = newHi;
+        if (!changed) {
+          break;
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // encoding bits of a range, as in TransitionBdd
+  static int bits(double l, double h) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros((int) (h - l)));
+  }
+
+  // ints and bools; the other types (clocks, doubles) have no state bits
+  boolean encoded(int v) {
+    return isInt[v] || decls[v].getDeclType() instanceof DeclarationBool;
+  }
+
+  boolean tightened(int v) {
+    return isInt[v] && (lo[v] > declLow[v] || hi[v] < declHigh[v]);
+  }
+
+  static String range(double l, double h) {
+    return "[" + (long) l + ".." + (long) h + "]";
+  }
+
+  void report() {
+    int declaredBits = 0;
+    int tightBits = 0;
+    int narrower = 0;
+    for (int v = 0; v < nVars; v++) {
+      if (!encoded(v)) {
+        continue;
+      }
+      int before = bits(declLow[v], declHigh[v]);
+      int after = tightened(v) ? bits(lo[v], hi[v]) : before;
+      declaredBits += before;
+      tightBits += after;
+      if (tightened(v)) {
+        narrower++;
+        System.out.println("// range " + analysis.vars.name(v) + ": declared " + range(declLow[v], declHigh[v])
+                           + ", reachable " + range(lo[v], hi[v]) + ", " + before + " -> " + after + " bits");
+      }
+    }
+    System.out.println("// ranges: " + narrower + " variables can be narrowed, state bits " + declaredBits
+                       + " -> " + tightBits + " (" + (declaredBits - tightBits) + " saved, "
+                       + rounds + " rounds)");
+  }
+
+  // rewrites the declarations to the reachable ranges; a range of a single
+  // value keeps a second one, it would not save a bit
+  void tighten() {
+    for (int v = 0; v < nVars; v++) {
+      if (!tightened(v)) {
+        continue;
+      }
+      double l = lo[v];
+      double h = hi[v];
+      if (l == h) {
+        if (h < declHigh[v]) {
+          h++;
+        } else {
+          l--;
+        }
+      }
+      DeclarationInt type = (DeclarationInt) decls[v].getDeclType();
+      type.setLow(new ExpressionLiteral(TypeInt.getInstance(), (int) l));
+      type.setHigh(new ExpressionLiteral(TypeInt.getInstance(), (int) h));
+    }
+  }
+}
@@ -0,0 +1,186 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// on-disk cache of analysis results, one file per SHA-256 of model text and
+// options; files are read through a memory mapping and the least recently
+// used ones (by modification time, which a hit refreshes) are deleted once
+// the directory grows beyond the size limit
+//
+// file format, big endian:
+//   int MAGIC, int VERSION
+//   int n, n strings: ranked variables
+//   int n, n doubles: their weights
+//   int n, n times (string variable, int guards, int updates,
+//                   int guard dependence, int update dependence)
+//   string: complete output
+//   string: model text written to a file (-o), empty otherwise
+// a string is an int byte count followed by its UTF-8 bytes
+public class ResultCache {
+
+  static final int MAGIC = 0x50414e43;
+  static final int VERSION = 2;
+  static final String SUFFIX = ".bin";
+
+  static class Entry {
+    List<String> ordering = new ArrayList<>();
+    List<Double> weights = new ArrayList<>();
+    List<String> statVars = new ArrayList<>();
+    // per variable: guards, updates, guard dependence, update dependence
+    List<int[]> stats = new ArrayList<>();
+    String output;
+    String model = "";
+  }
+
+  Path dir;
+  long maxBytes;
+
+  public ResultCache(Path dir, long maxBytes) throws IOException {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(dir);
+  }
+
+  static String key(byte[] modelText, String options) throws Exception {
+    MessageDigest sha = MessageDigest.getInstance("SHA-256");
+    sha.update(modelText);
+    sha.update((byte) 0);
+    sha.update((VERSION + ";" + options).getBytes(StandardCharsets.UTF_8));
+    StringBuilder sb = new StringBuilder();
+    for (byte b : sha.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  Path file(String key) {
+    return dir.resolve(key + SUFFIX);
+  }
+
+  // cached entry or null; unreadable files are removed
+  Entry get(String key) {
+    Path path = file(key);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      Entry entry = read(buf);
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+      return entry;
+    } catch (IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e2) {
+        // another process may be replacing it
+      }
+      return null;
+    }
+  }
+
+  static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static Entry read(ByteBuffer buf) throws IOException {
+    if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+      throw new IOException("not a cache file of this version");
+    }
+    Entry entry = new Entry();
+    for (int i = buf.getInt(); i > 0; i--) {
+      entry.ordering.add(readString(buf));
+    }
+    for (int i = buf.getInt(); i > 0; i--) {
+      entry.weights.add(buf.getDouble());
+    }
+    for (int i = buf.getInt(); i > 0; i--) {
+      entry.statVars.add(readString(buf));
+      entry.stats.add(new int[] { buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt() });
+    }
+    entry.output = readString(buf);
+    entry.model = readString(buf);
+    return entry;
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  // written to a temporary file first, so that concurrent runs never see a
+  // partial entry
+  void put(String key, Entry entry) throws IOException {
+    Path tmp = Files.createTempFile(dir, key, ".tmp");
+    try (OutputStream os = Files.newOutputStream(tmp);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entry.ordering.size());
+      for (String var : entry.ordering) {
+        writeString(out, var);
+      }
+      out.writeInt(entry.weights.size());
+      for (double w : entry.weights) {
+        out.writeDouble(w);
+      }
+      out.writeInt(entry.statVars.size());
+      for (int i = 0; i < entry.statVars.size(); i++) {
+        writeString(out, entry.statVars.get(i));
+        for (int value : entry.stats.get(i)) {
+          out.writeInt(value);
+        }
+      }
+      writeString(out, entry.output);
+      writeString(out, entry.model);
+    }
+    Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    evict();
+  }
+
+  // deletes the least recently used entries until the cache fits maxBytes
+  void evict() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> s = Files.list(dir)) {
+      s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+    }
+    long total = 0;
+    final List<long[]> info = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      try {
+        long size = Files.size(files.get(i));
+        info.add(new long[] { Files.getLastModifiedTime(files.get(i)).toMillis(), size, i });
+        total += size;
+      } catch (IOException e) {
+        // removed concurrently
+      }
+    }
+    info.sort((a, b) -> Long.compare(a[0], b[0]));
+    for (long[] f : info) {
+      if (total <= maxBytes) {
+        break;
+      }
+      Files.deleteIfExists(files.get((int) f[2]));
+      total -= f[1];
+    }
+  }
+}
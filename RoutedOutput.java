@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+// System.out and System.err seen per thread: once installed, a thread that
+// redirected a stream writes to its own target instead of the original
+// stream, so that the server can run analyses concurrently and still return
+// the output of each to its client; the output of an analysis is written by
+// the thread that runs it, not by the workers of the parallel ranking
+public class RoutedOutput extends OutputStream {
+
+  static RoutedOutput out;
+  static RoutedOutput err;
+
+  PrintStream original;
+  ThreadLocal<OutputStream> target = new ThreadLocal<>();
+
+  RoutedOutput(PrintStream original) {
+    this.original = original;
+  }
+
+  static synchronized void install() throws UnsupportedEncodingException {
+    if (out == null) {
+      out = new RoutedOutput(System.out);
+      err = new RoutedOutput(System.err);
+      System.setOut(new PrintStream(out, true, "UTF-8"));
+      System.setErr(new PrintStream(err, true, "UTF-8"));
+    }
+  }
+
+  // sends the output of the current thread to stream, or to the original
+  // stream if it is null; returns the previous target
+  OutputStream redirect(OutputStream stream) {
+    OutputStream previous = target.get();
+    target.set(stream);
+    return previous;
+  }
+
+  OutputStream current() {
+    OutputStream stream = target.get();
+    return stream != null ? stream : original;
+  }
+
+  public void write(int b) throws IOException {
+    current().write(b);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    current().write(b, off, len);
+  }
+
+  public void flush() throws IOException {
+    current().flush();
+  }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+// the ranking of rankVariablesReference() on a model snapshot whose commands
+// are never loaded: every pick scans the commands of the file sequentially
+// through one off-heap buffer of chunkBytes and adds their weights to the
+// weight array, with one array, reused, for the weight tree of the current
+// command; apart from the buffer, the memory needed is that of the tables of
+// variables and actions and of a few arrays per variable, module and action,
+// however many commands the model has
+//
+// with sync, the fewest children of the commands of an action in a module
+// depend on all of them, so every pick takes two scans, one for the numbers
+// of children and one for the weights
+public class StreamingRanking {
+
+  PrismAnalyse analysis;
+  ModelSnapshot snapshot;
+  int chunkBytes;
+
+  ModelSnapshot.Input in;
+  // the current command: its action and its compiled weight tree, the
+  // array grown to the largest one
+  int action;
+  int[] code = new int[256];
+
+  // with sync: per module its unsynchronised commands, per action and module
+  // (a * modules + m) the commands and their fewest children, per action
+  // the weight of a product and the sum of the fewest children, as in
+  // PrismAnalyse.prepareSync()
+  int[] unsynchronised;
+  int[] counts;
+  int[] actionMinChildren;
+  double[] actionWeight;
+  int[] actionTotalChildren;
+
+  public StreamingRanking(PrismAnalyse analysis, ModelSnapshot snapshot, int chunkBytes) {
+    this.analysis = analysis;
+    this.snapshot = snapshot;
+    this.chunkBytes = chunkBytes;
+  }
+
+  // reads the next command, skipping its support
+  void next() throws IOException {
+    action = in.getInt();
+    in.skipInts(in.getInt());
+    int n = in.getInt();
+    if (n > code.length) {
+      code = new int[Math.max(n, 2 * code.length)];
+    }
+    in.getInts(code, n);
+  }
+
+  void prepareSync() throws IOException {
+    int nModules = snapshot.moduleCommands.length;
+    int nActions = snapshot.actions.size();
+    unsynchronised = new int[nModules];
+    counts = new int[nActions * nModules];
+    in.seek(snapshot.commandsOffset);
+    for (int m = 0; m < nModules; m++) {
+      for (int j = 0; j < snapshot.moduleCommands[m]; j++) {
+        next();
+        if (action >= 0) {
+          counts[action * nModules + m]++;
+        } else {
+          unsynchronised[m]++;
+        }
+      }
+    }
+    actionWeight = new double[nActions];
+    for (int a = 0; a < nActions; a++) {
+      double product = 1;
+      for (int i = 0; i < nModules; i++) {
+        if (counts[a * nModules + i] > 0) {
+          product *= counts[a * nModules + i];
+        }
+      }
+      actionWeight[a] = 1 / product;
+    }
+    actionMinChildren = new int[nActions * nModules];
+    actionTotalChildren = new int[nActions];
+  }
+
+  void countChildren(long[] statesExcl) throws IOException {
+    int nModules = snapshot.moduleCommands.length;
+    Arrays.fill(actionMinChildren, Integer.MAX_VALUE);
+    in.seek(snapshot.commandsOffset);
+    for (int m = 0; m < nModules; m++) {
+      for (int j = 0; j < snapshot.moduleCommands[m]; j++) {
+        next();
+        if (action >= 0) {
+          int k = action * nModules + m;
+          actionMinChildren[k] = Math.min(actionMinChildren[k], PrismAnalyse.irCommandChildren(code, statesExcl));
+        }
+      }
+    }
+    for (int a = 0; a < actionTotalChildren.length; a++) {
+      actionTotalChildren[a] = 0;
+      for (int i = 0; i < nModules; i++) {
+        if (counts[a * nModules + i] > 0) {
+          actionTotalChildren[a] += actionMinChildren[a * nModules + i];
+        }
+      }
+    }
+  }
+
+  // weights of the current command of module m, as
+  // PrismAnalyse.commandWeights(); returns the number of nodes visited
+  int weights(int m, long[] statesExcl, double[] nodeWeights) {
+    if (!analysis.sync) {
+      return PrismAnalyse.irCommandWeights(code, 1, snapshot.moduleCommands[m], statesExcl, nodeWeights);
+    }
+    int siblings = PrismAnalyse.irCommandChildren(code, statesExcl);
+    if (siblings == 0) {
+      return 1;
+    }
+    double weight = 1.0 / unsynchronised[m];
+    if (action >= 0) {
+      siblings += actionTotalChildren[action] - actionMinChildren[action * snapshot.moduleCommands.length + m];
+      weight = actionWeight[action];
+    }
+    return 1 + PrismAnalyse.irChildrenWeights(code, weight, siblings, statesExcl, nodeWeights);
+  }
+
+  LinkedList<String> rank() throws IOException {
+
+    LinkedList<String> varList = new LinkedList<>();
+
+    int nVars = analysis.vars.size();
+    long[] statesExcl = new long[(nVars + 63) >>> 6];
+    double[] nodeWeights = new double[nVars];
+
+    try (FileChannel channel = FileChannel.open(snapshot.file, StandardOpenOption.READ)) {
+      in = new ModelSnapshot.Input(channel, chunkBytes);
+      if (analysis.sync) {
+        prepareSync();
+      }
+
+      while (true) {
+
+        Arrays.fill(nodeWeights, -1);
+
+        if (analysis.sync) {
+          countChildren(statesExcl);
+        }
+        in.seek(snapshot.commandsOffset);
+        for (int m = 0; m < snapshot.moduleCommands.length; m++) {
+          for (int j = 0; j < snapshot.moduleCommands[m]; j++) {
+            next();
+            analysis.metrics.iterationCommands++;
+            analysis.metrics.iterationNodes += weights(m, statesExcl, nodeWeights);
+          }
+        }
+
+        int maxStateVar = PrismAnalyse.selectMaxWeight(nodeWeights);
+
+        if (maxStateVar < 0) {
+          break;
+        }
+
+        statesExcl = PrismAnalyse.addVar(statesExcl, maxStateVar);
+        analysis.pickVariable(varList, maxStateVar, nodeWeights[maxStateVar],
+                              PrismAnalyse.weightedVariables(nodeWeights));
+      }
+    }
+
+    return varList;
+  }
+}
@@ -0,0 +1,35 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// interns names to dense IDs 0, 1, ... in order of first occurrence, so that
+// sets of names can be bitsets and maps from names can be arrays
+public class SymbolTable {
+
+  ArrayList<String> names = new ArrayList<>();
+  HashMap<String, Integer> ids = new HashMap<>();
+
+  // ID of name, a new one if name was not seen before
+  int id(String name) {
+    Integer id = ids.get(name);
+    if (id == null) {
+      id = names.size();
+      names.add(name);
+      ids.put(name, id);
+    }
+    return id;
+  }
+
+  // ID of name, -1 if name was not seen before
+  int lookup(String name) {
+    Integer id = ids.get(name);
+    return id != null ? id : -1;
+  }
+
+  String name(int id) {
+    return names.get(id);
+  }
+
+  int size() {
+    return names.size();
+  }
+}
@@ -0,0 +1,448 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import parser.Values;
+import parser.ast.*;
+import parser.ast.Module;
+import prism.PrismLangException;
+
+// builds the 0/1 transition relation of a model as a BDD for a given variable
+// ordering, to compare orderings by node count without running Prism
+//
+// each variable is binary encoded (most significant bit first) with current
+// and next state bits interleaved; commands with the same action are
+// conjoined across the modules having that action, as in Prism's parallel
+// composition; probabilities, rates and MDP nondeterminism variables are not
+// encoded, so counts are those of the support of the transition MTBDD
+public class TransitionBdd {
+
+  // expressions whose value set grows beyond this are not encoded
+  static final int MAX_VALUES = 1 << 16;
+
+  // value of an expression as a partition: values[i] where conds[i] holds
+  class Partition {
+    double[] values = new double[4];
+    int[] conds = new int[4];
+    int size;
+    HashMap<Double, Integer> index = new HashMap<>();
+
+    void add(double value, int cond) {
+      if (cond == Bdd.FALSE) {
+        return;
+      }
+      Integer i = index.get(value);
+      if (i != null) {
+        conds[i] = bdd.or(conds[i], cond);
+        return;
+      }
+      if (size == MAX_VALUES) {
+        throw new IllegalStateException("expression has too many values to encode");
+      }
+      if (size == values.length) {
+        values = java.util.Arrays.copyOf(values, 2 * size);
+        conds = java.util.Arrays.copyOf(conds, 2 * size);
+      }
+      index.put(value, size);
+      values[size] = value;
+      conds[size++] = cond;
+    }
+
+    // BDD of the states where the (boolean) value is true
+    int truth() {
+      int f = Bdd.FALSE;
+      for (int i = 0; i < size; i++) {
+        if (values[i] != 0) {
+          f = bdd.or(f, conds[i]);
+        }
+      }
+      return f;
+    }
+  }
+
+  PrismAnalyse analysis;
+  ModulesFile mf;
+  Values constants;
+  Bdd bdd;
+
+  List<String> order;
+  HashMap<String, Integer> orderIndex = new HashMap<>();
+  int[] lowValue;
+  int[] highValue;
+  int[] bits;
+  int[] firstLevel;
+
+  static final int GC_MIN_NODES = 1 << 20;
+  int gcThreshold = GC_MIN_NODES;
+
+  // y' = y for every variable
+  int[] identity;
+
+  public TransitionBdd(PrismAnalyse analysis, List<String> order) throws Exception {
+    this.analysis = analysis;
+    this.mf = analysis.mf;
+    this.order = order;
+    this.constants = mf.getConstantValues();
+
+    int n = order.size();
+    lowValue = new int[n];
+    highValue = new int[n];
+    bits = new int[n];
+    firstLevel = new int[n];
+
+    HashMap<String, Declaration> decls = new HashMap<>();
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      decls.put(mf.getGlobal(i).getName(), mf.getGlobal(i));
+    }
+    for (int i = 0; i < mf.getNumModules(); i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumDeclarations(); j++) {
+        decls.put(m.getDeclaration(j).getName(), m.getDeclaration(j));
+      }
+    }
+
+    // declaration bounds are constant, they are evaluated with a throwaway
+    // package before the levels are known
+    bdd = new Bdd(0, 16, 16);
+    int levels = 0;
+    for (int v = 0; v < n; v++) {
+      orderIndex.put(order.get(v), v);
+      DeclarationType type = decls.get(order.get(v)).getDeclType();
+      if (type instanceof DeclarationInt) {
+        lowValue[v] = (int) constantValue(((DeclarationInt) type).getLow());
+        highValue[v] = (int) constantValue(((DeclarationInt) type).getHigh());
+      } else {
+        lowValue[v] = 0;
+        highValue[v] = 1;
+      }
+      bits[v] = Math.max(1, 32 - Integer.numberOfLeadingZeros(highValue[v] - lowValue[v]));
+      firstLevel[v] = levels;
+      levels += 2 * bits[v];
+    }
+
+    bdd = new Bdd(levels, 1 << 16, 1 << 18);
+
+    identity = new int[n];
+    for (int v = 0; v < n; v++) {
+      int f = Bdd.TRUE;
+      for (int b = bits[v] - 1; b >= 0; b--) {
+        int cur = firstLevel[v] + 2 * b;
+        f = bdd.and(bdd.iff(bdd.ithVar(cur), bdd.ithVar(cur + 1)), f);
+      }
+      identity[v] = f;
+    }
+  }
+
+  double constantValue(Expression e) throws Exception {
+    Partition p = encode(e, false);
+    if (p.size != 1) {
+      throw new IllegalStateException("not a constant expression: " + e);
+    }
+    return p.values[0];
+  }
+
+  // BDD of var = value on the current (next == false) or next state bits
+  int valueCond(int v, int value, boolean next) {
+    int code = value - lowValue[v];
+    int f = Bdd.TRUE;
+    for (int b = bits[v] - 1; b >= 0; b--) {
+      int lvl = firstLevel[v] + 2 * b + (next ? 1 : 0);
+      boolean bit = ((code >>> (bits[v] - 1 - b)) & 1) != 0;
+      f = bit ? bdd.mk(lvl, Bdd.FALSE, f) : bdd.mk(lvl, f, Bdd.FALSE);
+    }
+    return f;
+  }
+
+  static double toDouble(Object value) {
+    if (value instanceof Boolean) {
+      return ((Boolean) value) ? 1 : 0;
+    }
+    return ((Number) value).doubleValue();
+  }
+
+  Partition constant(double value) {
+    Partition p = new Partition();
+    p.add(value, Bdd.TRUE);
+    return p;
+  }
+
+  Partition fromBdd(int f) {
+    Partition p = new Partition();
+    p.add(1, f);
+    p.add(0, bdd.not(f));
+    return p;
+  }
+
+  static double apply(int op, double a, double b) {
+    switch (op) {
+    case ExpressionBinaryOp.PLUS: return a + b;
+    case ExpressionBinaryOp.MINUS: return a - b;
+    case ExpressionBinaryOp.TIMES: return a * b;
+    case ExpressionBinaryOp.DIVIDE: return a / b;
+    case ExpressionBinaryOp.EQ: return a == b ? 1 : 0;
+    case ExpressionBinaryOp.NE: return a != b ? 1 : 0;
+    case ExpressionBinaryOp.GT: return a > b ? 1 : 0;
+    case ExpressionBinaryOp.GE: return a >= b ? 1 : 0;
+    case ExpressionBinaryOp.LT: return a < b ? 1 : 0;
+    default: return a <= b ? 1 : 0;
+    }
+  }
+
+  static double applyFunc(int func, double a, double b) {
+    switch (func) {
+    case ExpressionFunc.MIN: return Math.min(a, b);
+    case ExpressionFunc.MAX: return Math.max(a, b);
+    case ExpressionFunc.POW: return Math.pow(a, b);
+    case ExpressionFunc.MOD: return ((a % b) + b) % b;
+    default: return Math.log(a) / Math.log(b);
+    }
+  }
+
+  Partition combine(Partition p1, Partition p2, int op, boolean func) {
+    Partition p = new Partition();
+    for (int i = 0; i < p1.size; i++) {
+      for (int j = 0; j < p2.size; j++) {
+        int cond = bdd.and(p1.conds[i], p2.conds[j]);
+        if (cond != Bdd.FALSE) {
+          double value = func ? applyFunc(op, p1.values[i], p2.values[j]) : apply(op, p1.values[i], p2.values[j]);
+          p.add(value, cond);
+        }
+      }
+    }
+    return p;
+  }
+
+  // value of e in the current (or, with next, the next) state variables
+  Partition encode(Expression e, boolean next) {
+    return new Encoder(next).visit(e);
+  }
+
+  class Encoder extends ExpressionVisitor<Partition> {
+    boolean next;
+
+    Encoder(boolean next) {
+      super(analysis.formulas, analysis.labels);
+      this.next = next;
+    }
+
+    Partition visitLiteral(ExpressionLiteral e) {
+      return constant(toDouble(e.getValue()));
+    }
+
+    Partition visitConstant(ExpressionConstant e) {
+      if (constants == null) {
+        throw new IllegalStateException("model has undefined constants");
+      }
+      try {
+        return constant(toDouble(constants.getValueOf(e.getName())));
+      } catch (PrismLangException ex) {
+        throw new IllegalStateException(ex.getMessage());
+      }
+    }
+
+    Partition visitVar(ExpressionVar e) {
+      int v = orderIndex.get(e.getName());
+      Partition p = new Partition();
+      for (int value = lowValue[v]; value <= highValue[v]; value++) {
+        p.add(value, valueCond(v, value, next));
+      }
+      return p;
+    }
+
+    Partition visitBinaryOp(ExpressionBinaryOp binOp) {
+      Partition p1 = visit(binOp.getOperand1());
+      Partition p2 = visit(binOp.getOperand2());
+      switch (binOp.getOperator()) {
+      case ExpressionBinaryOp.AND: return fromBdd(bdd.and(p1.truth(), p2.truth()));
+      case ExpressionBinaryOp.OR: return fromBdd(bdd.or(p1.truth(), p2.truth()));
+      case ExpressionBinaryOp.IMPLIES: return fromBdd(bdd.implies(p1.truth(), p2.truth()));
+      case ExpressionBinaryOp.IFF: return fromBdd(bdd.iff(p1.truth(), p2.truth()));
+      default: return combine(p1, p2, binOp.getOperator(), false);
+      }
+    }
+
+    Partition visitUnaryOp(ExpressionUnaryOp unaryOp) {
+      Partition p = visit(unaryOp.getOperand());
+      if (unaryOp.getOperator() == ExpressionUnaryOp.NOT) {
+        return fromBdd(bdd.not(p.truth()));
+      } else if (unaryOp.getOperator() == ExpressionUnaryOp.MINUS) {
+        Partition neg = new Partition();
+        for (int i = 0; i < p.size; i++) {
+          neg.add(-p.values[i], p.conds[i]);
+        }
+        return neg;
+      }
+      return p;
+    }
+
+    Partition visitITE(ExpressionITE ite) {
+      int cond = visit(ite.getOperand1()).truth();
+      Partition p1 = visit(ite.getOperand2());
+      Partition p2 = visit(ite.getOperand3());
+      Partition p = new Partition();
+      for (int i = 0; i < p1.size; i++) {
+        p.add(p1.values[i], bdd.and(cond, p1.conds[i]));
+      }
+      int notCond = bdd.not(cond);
+      for (int i = 0; i < p2.size; i++) {
+        p.add(p2.values[i], bdd.and(notCond, p2.conds[i]));
+      }
+      return p;
+    }
+
+    Partition visitFunc(ExpressionFunc eFunc) {
+      Partition p = visit(eFunc.getOperand(0));
+      if (eFunc.getNameCode() == ExpressionFunc.FLOOR || eFunc.getNameCode() == ExpressionFunc.CEIL) {
+        Partition rounded = new Partition();
+        for (int i = 0; i < p.size; i++) {
+          double value = eFunc.getNameCode() == ExpressionFunc.FLOOR ? Math.floor(p.values[i]) : Math.ceil(p.values[i]);
+          rounded.add(value, p.conds[i]);
+        }
+        return rounded;
+      }
+      for (int i = 1; i < eFunc.getNumOperands(); i++) {
+        p = combine(p, visit(eFunc.getOperand(i)), eFunc.getNameCode(), true);
+      }
+      return p;
+    }
+
+    // a label without a definition and the kinds of properties
+    Partition visitOperator(Expression e, int nOperands) {
+      throw new IllegalStateException("cannot encode expression " + e);
+    }
+
+    Partition visitOther(Expression e) {
+      throw new IllegalStateException("cannot encode expression " + e);
+    }
+  }
+
+  // guard and updates of c; every update sets the variables in frame that it
+  // does not assign to their current value
+  int commandRelation(Command c, List<Integer> frame) throws Exception {
+    int guard = encode(c.getGuard(), false).truth();
+    Updates us = c.getUpdates();
+    int updates = Bdd.FALSE;
+    for (int k = 0; k < us.getNumUpdates(); k++) {
+      Update u = us.getUpdate(k);
+      int f = Bdd.TRUE;
+      ArrayList<Integer> assigned = new ArrayList<>();
+      for (int l = 0; l < u.getNumElements(); l++) {
+        int v = orderIndex.get(u.getVar(l));
+        assigned.add(v);
+        Partition rhs = encode(u.getExpression(l), false);
+        int element = Bdd.FALSE;
+        for (int i = 0; i < rhs.size; i++) {
+          double value = rhs.values[i];
+          if (value == Math.rint(value) && value >= lowValue[v] && value <= highValue[v]) {
+            element = bdd.or(element, bdd.and(rhs.conds[i], valueCond(v, (int) value, true)));
+          }
+        }
+        f = bdd.and(f, element);
+      }
+      for (int v : frame) {
+        if (!assigned.contains(v)) {
+          f = bdd.and(f, identity[v]);
+        }
+      }
+      updates = bdd.or(updates, f);
+    }
+    return bdd.and(guard, updates);
+  }
+
+  int identityExcept(List<Integer> vars) {
+    int f = Bdd.TRUE;
+    for (int v = identity.length - 1; v >= 0; v--) {
+      if (!vars.contains(v)) {
+        f = bdd.and(identity[v], f);
+      }
+    }
+    return f;
+  }
+
+  // transition relation as the disjunction of all unsynchronised commands and
+  // of the product of each action over the modules that have it
+  int build() throws Exception {
+    int nModules = mf.getNumModules();
+    ArrayList<List<Integer>> moduleVars = new ArrayList<>();
+    ArrayList<Integer> globals = new ArrayList<>();
+    for (int i = 0; i < mf.getNumGlobals(); i++) {
+      globals.add(orderIndex.get(mf.getGlobal(i).getName()));
+    }
+    for (int i = 0; i < nModules; i++) {
+      Module m = mf.getModule(i);
+      ArrayList<Integer> vars = new ArrayList<>();
+      for (int j = 0; j < m.getNumDeclarations(); j++) {
+        vars.add(orderIndex.get(m.getDeclaration(j).getName()));
+      }
+      moduleVars.add(vars);
+    }
+
+    // roots[0] is the relation so far, roots[1] the frame of the current
+    // module; both survive collections
+    int[] roots = { Bdd.FALSE, -1 };
+
+    for (int i = 0; i < nModules; i++) {
+      Module m = mf.getModule(i);
+      ArrayList<Integer> frame = new ArrayList<>(moduleVars.get(i));
+      frame.addAll(globals);
+      roots[1] = identityExcept(frame);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        Command c = m.getCommand(j);
+        if (c.getSynch().equals("")) {
+          roots[0] = bdd.or(roots[0], bdd.and(commandRelation(c, frame), roots[1]));
+          collect(roots);
+        }
+      }
+    }
+    roots[1] = -1;
+
+    ArrayList<String> actions = new ArrayList<>();
+    for (int i = 0; i < nModules; i++) {
+      Module m = mf.getModule(i);
+      for (int j = 0; j < m.getNumCommands(); j++) {
+        String action = m.getCommand(j).getSynch();
+        if (!action.equals("") && !actions.contains(action)) {
+          actions.add(action);
+        }
+      }
+    }
+
+    for (String action : actions) {
+      int product = Bdd.TRUE;
+      ArrayList<Integer> participating = new ArrayList<>();
+      for (int i = 0; i < nModules; i++) {
+        Module m = mf.getModule(i);
+        int moduleRelation = Bdd.FALSE;
+        boolean hasAction = false;
+        for (int j = 0; j < m.getNumCommands(); j++) {
+          if (m.getCommand(j).getSynch().equals(action)) {
+            hasAction = true;
+            moduleRelation = bdd.or(moduleRelation, commandRelation(m.getCommand(j), moduleVars.get(i)));
+          }
+        }
+        if (hasAction) {
+          product = bdd.and(product, moduleRelation);
+          participating.addAll(moduleVars.get(i));
+        }
+      }
+      roots[0] = bdd.or(roots[0], bdd.and(product, identityExcept(participating)));
+      collect(roots);
+    }
+
+    return roots[0];
+  }
+
+  // collects once the package has doubled since the last collection
+  void collect(int[] roots) {
+    if (bdd.size > gcThreshold) {
+      bdd.gc(roots, identity);
+      gcThreshold = Math.max(GC_MIN_NODES, 2 * bdd.size);
+    }
+  }
+
+  // node count of the transition relation under the given ordering
+  static int nodeCount(PrismAnalyse analysis, List<String> order) throws Exception {
+    TransitionBdd t = new TransitionBdd(analysis, order);
+    return t.bdd.nodeCount(t.build());
+  }
+}
@@ -0,0 +1,215 @@
+package prismanalyse.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parser.ast.ModulesFile;
+
+// the analysis phases, each measured on its own, on a fixed model (-p
+// model=models/polling.sm) or on a model of ModelGenerator (-p modules=...,
+// commands, variables, depth, fanout, actions, range, seed):
+//
+//   java -cp benchmarks/target/benchmarks.jar:$PRISM_DIR/lib/prism.jar \
+//     org.openjdk.jmh.Main PhaseBenchmark -p commands=100,1000 -prof gc
+//
+// JMH refuses benchmarks in the default package and a named package cannot
+// import the classes of prismAnalyse, so they are reached by reflection;
+// the call overhead is negligible against the phases
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xss4m")
+public class PhaseBenchmark {
+
+  // a model file, relative to the working directory; empty for a generated
+  // model
+  @Param({ "" })
+  public String model;
+
+  @Param({ "8" })
+  public String modules;
+
+  @Param({ "100" })
+  public String commands;
+
+  @Param({ "64" })
+  public String variables;
+
+  @Param({ "3" })
+  public String depth;
+
+  @Param({ "2" })
+  public String fanout;
+
+  @Param({ "2" })
+  public String actions;
+
+  @Param({ "7" })
+  public String range;
+
+  @Param({ "42" })
+  public String seed;
+
+  static final Class<?> ANALYSE;
+  static final Class<?> GENERATOR;
+  static final Method PARSE_MODEL;
+  static final Constructor<?> NEW_ANALYSE;
+  static final Method POPULATE_STATE_VARS;
+  static final Method POPULATE_FORMULAS;
+  static final Method POPULATE_CONSTANTS;
+  static final Method POPULATE_COMMANDS;
+  static final Method COMPUTE_STATISTICS;
+  static final Method RANK_VARIABLES;
+  static final Field RANKING_MODE;
+  static final Class<?> RANKING_MODES;
+
+  static {
+    try {
+      ANALYSE = Class.forName("PrismAnalyse");
+      GENERATOR = Class.forName("ModelGenerator");
+      PARSE_MODEL = accessible(ANALYSE.getDeclaredMethod("parseModel", InputStream.class));
+      NEW_ANALYSE = accessible(ANALYSE.getDeclaredConstructor(ModulesFile.class, boolean.class));
+      POPULATE_STATE_VARS = accessible(ANALYSE.getDeclaredMethod("populateStateVars"));
+      POPULATE_FORMULAS = accessible(ANALYSE.getDeclaredMethod("populateFormulas"));
+      POPULATE_CONSTANTS = accessible(ANALYSE.getDeclaredMethod("populateConstants"));
+      POPULATE_COMMANDS = accessible(ANALYSE.getDeclaredMethod("populateCommands"));
+      COMPUTE_STATISTICS = accessible(ANALYSE.getDeclaredMethod("computeStatistics"));
+      RANK_VARIABLES = accessible(ANALYSE.getDeclaredMethod("rankVariables"));
+      RANKING_MODE = accessible(ANALYSE.getDeclaredField("rankingMode"));
+      RANKING_MODES = Class.forName("PrismAnalyse$RankingMode");
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  static <T extends java.lang.reflect.AccessibleObject> T accessible(T member) {
+    member.setAccessible(true);
+    return member;
+  }
+
+  byte[] text;
+  // the tidied model the support index is built on
+  ModulesFile mf;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    if (!model.isEmpty()) {
+      text = Files.readAllBytes(Paths.get(model));
+    } else {
+      Object gen = accessible(GENERATOR.getDeclaredConstructor()).newInstance();
+      Method set = accessible(GENERATOR.getDeclaredMethod("set", String.class, String.class));
+      set.invoke(gen, "modules", modules);
+      set.invoke(gen, "commands", commands);
+      set.invoke(gen, "variables", variables);
+      set.invoke(gen, "depth", depth);
+      set.invoke(gen, "fanout", fanout);
+      set.invoke(gen, "actions", actions);
+      set.invoke(gen, "range", range);
+      set.invoke(gen, "seed", seed);
+      text = ((String) accessible(GENERATOR.getDeclaredMethod("generate")).invoke(gen)).getBytes(StandardCharsets.UTF_8);
+    }
+    mf = parse();
+  }
+
+  ModulesFile parse() throws Exception {
+    return (ModulesFile) PARSE_MODEL.invoke(null, new ByteArrayInputStream(text));
+  }
+
+  // every invocation gets an analysis of its own, so that nothing a phase
+  // caches or accumulates (compiled commands, statistics, the per-pick
+  // metrics) carries over to the next one
+  @State(Scope.Thread)
+  public static class Fresh {
+    Object analysis;
+
+    @Setup(Level.Invocation)
+    public void setup(PhaseBenchmark model) throws Exception {
+      analysis = NEW_ANALYSE.newInstance(model.parse(), true);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Populated {
+    Object analysis;
+
+    @Setup(Level.Invocation)
+    public void setup(PhaseBenchmark model) throws Exception {
+      analysis = NEW_ANALYSE.newInstance(model.parse(), true);
+      POPULATE_STATE_VARS.invoke(analysis);
+    }
+  }
+
+  static Object rank(Object analysis, String mode) throws Exception {
+    for (Object constant : RANKING_MODES.getEnumConstants()) {
+      if (((Enum<?>) constant).name().equals(mode)) {
+        RANKING_MODE.set(analysis, constant);
+      }
+    }
+    return RANK_VARIABLES.invoke(analysis);
+  }
+
+  @Benchmark
+  public Object parseModel() throws Exception {
+    return parse();
+  }
+
+  // the support index is built by the constructor, on the shared tidied model
+  @Benchmark
+  public Object index() throws Exception {
+    return NEW_ANALYSE.newInstance(mf, true);
+  }
+
+  @Benchmark
+  public Object populate(Fresh fresh) throws Exception {
+    POPULATE_STATE_VARS.invoke(fresh.analysis);
+    POPULATE_FORMULAS.invoke(fresh.analysis);
+    POPULATE_CONSTANTS.invoke(fresh.analysis);
+    POPULATE_COMMANDS.invoke(fresh.analysis);
+    return fresh.analysis;
+  }
+
+  @Benchmark
+  public Object computeStatistics(Populated populated) throws Exception {
+    return COMPUTE_STATISTICS.invoke(populated.analysis);
+  }
+
+  @Benchmark
+  public Object rankReference(Fresh fresh) throws Exception {
+    return rank(fresh.analysis, "REFERENCE");
+  }
+
+  @Benchmark
+  public Object rankIncremental(Fresh fresh) throws Exception {
+    return rank(fresh.analysis, "INCREMENTAL");
+  }
+
+  @Benchmark
+  public Object rankParallel(Fresh fresh) throws Exception {
+    return rank(fresh.analysis, "PARALLEL");
+  }
+}